@@ -0,0 +1,76 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import main.ChangeJournal.Change;
+import main.DiffEngine;
+import main.FileIndex;
+import main.FileInfo;
+
+/**
+ * Classifies the changes after a large reorganisation of the folder: one of
+ * every hundred files is in a directory that was moved, and a tenth of the
+ * files each were renamed, deleted and created.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class DiffBenchmark {
+
+	@Param({ "10000", "100000", "1000000" })
+	public int entries;
+
+	private TreeMap<String, FileInfo> before;
+	private FileIndex after;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(entries);
+		before = new TreeMap<>();
+		after = new FileIndex();
+		for (int i = 0; i < entries; i++) {
+			FileInfo fI = new FileInfo("d" + (i % 100) + "/s" + (i % 7) + "/f" + i, i, random.nextLong());
+			if (i % 100 == 0)
+				rename(fI, "moved/" + fI.getName());
+			else if (i % 10 == 1)
+				rename(fI, fI.getName() + ".renamed");
+			else if (i % 10 == 2)
+				before.put(fI.getName(), fI);
+			else if (i % 10 == 3) {
+				before.put(fI.getName(), null);
+				after.put(fI);
+			} else
+				after.put(fI);
+		}
+	}
+
+	private void rename(FileInfo fI, String name) {
+		before.put(fI.getName(), fI);
+		before.put(name, null);
+		after.put(new FileInfo(name, fI.getLength(), fI.getHash()));
+	}
+
+	@Benchmark
+	public ArrayList<Change> diff() {
+		return DiffEngine.diff(before, after);
+	}
+
+}
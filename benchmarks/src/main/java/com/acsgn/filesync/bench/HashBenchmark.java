@@ -0,0 +1,65 @@
+package bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import main.FileHasher;
+
+/**
+ * Hashes one file, which is what the scan does for every file that is not in
+ * the hash cache. Files below a megabyte are hashed in one read, larger ones
+ * are streamed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HashBenchmark {
+
+	@Param({ "1024", "65536", "1048576", "67108864" })
+	public int size;
+
+	private File file;
+
+	@Setup
+	public void setup() throws IOException {
+		file = File.createTempFile("hash", ".bin");
+		Random random = new Random(size);
+		byte[] buffer = new byte[1 << 20];
+		try (FileOutputStream fos = new FileOutputStream(file)) {
+			for (int written = 0; written < size; written += buffer.length) {
+				random.nextBytes(buffer);
+				fos.write(buffer, 0, Math.min(buffer.length, size - written));
+			}
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Benchmark
+	public long hash() throws IOException {
+		return FileHasher.hash(file);
+	}
+
+}
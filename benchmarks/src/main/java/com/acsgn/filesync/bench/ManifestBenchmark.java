@@ -0,0 +1,97 @@
+package bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import main.FileInfo;
+import main.HashCache;
+import socket.CommandSocket;
+import socket.Message;
+import socket.MessageType;
+
+/**
+ * Encodes and decodes the information of all the files of a folder, as a
+ * framed message and as the hash cache that is kept in the folder
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class ManifestBenchmark {
+
+	@Param({ "10000", "100000", "1000000" })
+	public int entries;
+
+	private ArrayList<FileInfo> files;
+	private byte[] encoded;
+	private File folder;
+
+	@Setup
+	public void setup() throws IOException {
+		Random random = new Random(entries);
+		files = new ArrayList<>();
+		for (int i = 0; i < entries; i++)
+			files.add(new FileInfo("d" + (i % 100) + "/s" + (i % 7) + "/f" + i, random.nextInt(1 << 20),
+					random.nextLong()));
+		encoded = encode();
+		folder = Files.createTempDirectory("manifest").toFile();
+		writeCache();
+	}
+
+	@TearDown
+	public void tearDown() {
+		for (File file : folder.listFiles())
+			file.delete();
+		folder.delete();
+	}
+
+	@Benchmark
+	public byte[] encode() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new CommandSocket(null, out).send(new Message(MessageType.TREE).putFileInfos(files));
+		return out.toByteArray();
+	}
+
+	@Benchmark
+	public ArrayList<FileInfo> decode() {
+		return new CommandSocket(new ByteArrayInputStream(encoded), null).receive().getFileInfos();
+	}
+
+	@Benchmark
+	public void writeCache() {
+		new File(folder, HashCache.FILE_NAME).delete();
+		try (HashCache cache = new HashCache(folder)) {
+			for (FileInfo fI : files)
+				cache.put(fI.getName(), 0, fI.getLength(), fI.getHash());
+		}
+	}
+
+	@Benchmark
+	public ArrayList<FileInfo> readCache() {
+		try (HashCache cache = new HashCache(folder)) {
+			return cache.getFiles();
+		}
+	}
+
+}
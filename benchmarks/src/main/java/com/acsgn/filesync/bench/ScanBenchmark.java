@@ -0,0 +1,92 @@
+package bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import main.FileInfo;
+import main.FolderOperations;
+
+/**
+ * Lists a synthetic folder with 100 files of up to 4 KB per directory, the way
+ * a session starts on a folder that was not opened before. With a warm cache
+ * the hashes are taken from the hash cache the previous iteration left behind,
+ * with a cold one every file is hashed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ScanBenchmark {
+
+	@Param({ "10000", "100000" })
+	public int files;
+
+	@Param({ "warm", "cold" })
+	public String cache;
+
+	private Path folder;
+	private FolderOperations fo;
+
+	@Setup
+	public void setup() throws IOException {
+		folder = Files.createTempDirectory("scan");
+		Random random = new Random(files);
+		for (int i = 0; i < files; i++) {
+			Path file = folder.resolve("d" + (i / 1000) + "/s" + (i / 100 % 10) + "/f" + i);
+			Files.createDirectories(file.getParent());
+			byte[] content = new byte[random.nextInt(4096)];
+			random.nextBytes(content);
+			Files.write(file, content);
+		}
+	}
+
+	@Setup(Level.Iteration)
+	public void open() {
+		if (cache.equals("cold")) {
+			for (File file : folder.toFile().listFiles((dir, name) -> name.startsWith(".filesync")))
+				file.delete();
+		}
+		fo = new FolderOperations(folder.toString());
+	}
+
+	@TearDown(Level.Iteration)
+	public void close() {
+		fo.close();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		try (Stream<Path> paths = Files.walk(folder)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	@Benchmark
+	public List<FileInfo> update() {
+		return fo.update();
+	}
+
+}
@@ -0,0 +1,112 @@
+package bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import main.FileHasher;
+import main.FolderOperations;
+import socket.BlockChecksum;
+import socket.Connection;
+import socket.FileSocket;
+
+/**
+ * Sends a file from one file socket to another over loopback and receives it
+ * into a folder, with its checksum and the move into place. The content is
+ * random, so compression only shows its cost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TransferBenchmark {
+
+	@Param({ "65536", "1048576", "67108864" })
+	public int size;
+
+	@Param({ "false", "true" })
+	public boolean compression;
+
+	private File source;
+	private File target;
+	private long hash;
+	private Connection sending;
+	private Connection receiving;
+	private FileSocket sender;
+	private FileSocket receiver;
+	private FolderOperations fo;
+	private ExecutorService executor;
+
+	@Setup
+	public void setup() throws IOException {
+		source = File.createTempFile("transfer", ".bin");
+		Random random = new Random(size);
+		byte[] buffer = new byte[1 << 20];
+		try (FileOutputStream fos = new FileOutputStream(source)) {
+			for (int written = 0; written < size; written += buffer.length) {
+				random.nextBytes(buffer);
+				fos.write(buffer, 0, Math.min(buffer.length, size - written));
+			}
+		}
+		hash = FileHasher.hash(source);
+		target = Files.createTempDirectory("transfer").toFile();
+		fo = new FolderOperations(target.getPath());
+		try (ServerSocketChannel server = ServerSocketChannel.open()) {
+			server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+			sending = new Connection(SocketChannel.open(server.getLocalAddress()).socket());
+			receiving = new Connection(server.accept().socket());
+		}
+		sender = sending.createFileSocket();
+		receiver = receiving.createFileSocket();
+		sender.setCompression(compression);
+		receiver.setCompression(compression);
+		executor = Executors.newSingleThreadExecutor();
+	}
+
+	@TearDown
+	public void tearDown() {
+		executor.shutdown();
+		sending.close();
+		receiving.close();
+		fo.close();
+		for (File file : target.listFiles())
+			file.delete();
+		target.delete();
+		source.delete();
+	}
+
+	@Benchmark
+	public BlockChecksum transfer() throws InterruptedException, ExecutionException {
+		Future<?> sent = executor.submit(() -> sender.sendFile(source.getPath(), size, 0));
+		BlockChecksum received = receiver.receiveFile(fo.getFilePath("copy"), size, hash, null, fo);
+		sent.get();
+		return received;
+	}
+
+}
@@ -0,0 +1,317 @@
+package main;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the changes of the folder. Every change gets the next
+ * sequence number and is appended to a log file inside the folder as a record
+ * protected by its own CRC, the same way as the hash cache. A follower that
+ * remembers the last sequence number it applied receives only the changes after
+ * it. Old changes are dropped once the journal grows past
+ * {@link Settings#JOURNAL_LENGTH}, a follower that is further behind compares
+ * the whole folder instead.
+ * <p>
+ * Every journal has a random id that changes when it is created again, so a
+ * sequence number is only valid together with the id of its journal.
+ */
+public class ChangeJournal implements Closeable {
+
+	public static final String FILE_NAME = ".filesync.journal";
+	public static final int CREATE = 1;
+	public static final int MODIFY = 2;
+	public static final int RENAME = 3;
+	public static final int DELETE = 4;
+	/**
+	 * A directory was moved with all of its files, the length is the number of
+	 * the files
+	 */
+	public static final int MOVE = 5;
+
+	private static final int MAGIC = 0x464a524e;
+
+	private File file;
+	private long id;
+	private long firstSequence = 1;
+	private long lastSequence;
+	private ArrayList<Change> changes;
+	private DataOutputStream log;
+
+	/**
+	 * Opens the journal that is stored in the given folder or creates a new one
+	 *
+	 * @param folder The folder that is synchronized
+	 */
+	public ChangeJournal(File folder) {
+		file = new File(folder, FILE_NAME);
+		changes = new ArrayList<>();
+		load();
+	}
+
+	/**
+	 * Appends a change and gives it the next sequence number
+	 *
+	 * @param type    Type of the change
+	 * @param name    Name of the file relative to the folder
+	 * @param oldName The old name of a renamed file, null for other changes
+	 * @param length  Length of the file, or its last length if it was deleted
+	 * @param hash    Hash of the file, or its last hash if it was deleted
+	 */
+	public synchronized void append(int type, String name, String oldName, long length, long hash) {
+		Change change = new Change(++lastSequence, type, name, oldName == null ? "" : oldName, length, hash);
+		changes.add(change);
+		if (log != null) {
+			try {
+				write(log, change);
+			} catch (IOException e) {
+				System.err.println("Couldn't write change journal");
+			}
+		}
+		if (changes.size() > 2 * Math.max(1, Settings.JOURNAL_LENGTH))
+			compact();
+	}
+
+	/**
+	 * Gets the changes after the given sequence number
+	 *
+	 * @param sequence The last sequence number the follower applied
+	 * @return The changes in order, or null if some of them were already dropped
+	 */
+	public synchronized ArrayList<Change> since(long sequence) {
+		if (sequence < firstSequence - 1 || sequence > lastSequence)
+			return null;
+		int from = (int) (sequence - firstSequence + 1);
+		return new ArrayList<>(changes.subList(from, changes.size()));
+	}
+
+	public synchronized long getId() {
+		return id;
+	}
+
+	public synchronized long getLastSequence() {
+		return lastSequence;
+	}
+
+	/**
+	 * Writes the buffered changes to the disk
+	 */
+	public synchronized void flush() {
+		try {
+			if (log != null)
+				log.flush();
+		} catch (IOException e) {
+			System.err.println("Couldn't write change journal");
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		flush();
+		try {
+			if (log != null)
+				log.close();
+		} catch (IOException e) {
+			System.err.println("Couldn't close change journal");
+		}
+		log = null;
+	}
+
+	private void load() {
+		long valid = 0;
+		if (file.exists()) {
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+				byte[] header = new byte[20];
+				in.readFully(header);
+				if (in.readInt() != crc(header) || readInt(header, 0) != MAGIC)
+					throw new EOFException();
+				id = readLong(header, 4);
+				firstSequence = readLong(header, 12);
+				lastSequence = firstSequence - 1;
+				valid = 24;
+				while (true) {
+					int length = in.readInt();
+					if (length < 0 || length > 1 << 17)
+						break;
+					byte[] record = new byte[length];
+					in.readFully(record);
+					if (in.readInt() != crc(record))
+						break;
+					Change change = decode(record);
+					if (change.sequence != lastSequence + 1)
+						break;
+					changes.add(change);
+					lastSequence = change.sequence;
+					valid += 8 + length;
+				}
+			} catch (EOFException e) {
+				// The last record was torn, everything before it is valid
+			} catch (IOException e) {
+				System.err.println("Couldn't read change journal");
+			}
+		}
+		try {
+			if (valid == 0) {
+				id = new SecureRandom().nextLong();
+				rewrite();
+			} else {
+				if (file.length() != valid) {
+					try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+						raf.setLength(valid);
+					}
+				}
+				log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+			}
+		} catch (IOException e) {
+			System.err.println("Couldn't open change journal, changes will not be persisted");
+		}
+	}
+
+	/**
+	 * Drops the oldest changes and keeps the last {@link Settings#JOURNAL_LENGTH}
+	 */
+	private void compact() {
+		int drop = changes.size() - Math.max(1, Settings.JOURNAL_LENGTH);
+		changes = new ArrayList<>(changes.subList(drop, changes.size()));
+		firstSequence += drop;
+		try {
+			close();
+			rewrite();
+		} catch (IOException e) {
+			System.err.println("Couldn't compact change journal");
+		}
+	}
+
+	private void rewrite() throws IOException {
+		File compacted = new File(file.getPath() + ".new");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compacted)))) {
+			byte[] header = new byte[20];
+			writeInt(header, 0, MAGIC);
+			writeLong(header, 4, id);
+			writeLong(header, 12, firstSequence);
+			out.write(header);
+			out.writeInt(crc(header));
+			for (Change change : changes)
+				write(out, change);
+		}
+		Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+	}
+
+	private static void write(DataOutputStream out, Change change) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream record = new DataOutputStream(bytes);
+		record.writeLong(change.sequence);
+		record.writeByte(change.type);
+		record.writeUTF(change.name);
+		record.writeUTF(change.oldName);
+		record.writeLong(change.length);
+		record.writeLong(change.hash);
+		out.writeInt(bytes.size());
+		out.write(bytes.toByteArray());
+		out.writeInt(crc(bytes.toByteArray()));
+	}
+
+	private static Change decode(byte[] record) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+		return new Change(in.readLong(), in.readByte(), in.readUTF(), in.readUTF(), in.readLong(), in.readLong());
+	}
+
+	private static int crc(byte[] bytes) {
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length);
+		return (int) crc.getValue();
+	}
+
+	private static int readInt(byte[] b, int offset) {
+		return (int) readBytes(b, offset, 4);
+	}
+
+	private static long readLong(byte[] b, int offset) {
+		return readBytes(b, offset, 8);
+	}
+
+	private static long readBytes(byte[] b, int offset, int count) {
+		long value = 0;
+		for (int i = 0; i < count; i++)
+			value = (value << 8) | (b[offset + i] & 0xff);
+		return value;
+	}
+
+	private static void writeInt(byte[] b, int offset, int value) {
+		for (int i = 0; i < 4; i++)
+			b[offset + i] = (byte) (value >>> (24 - 8 * i));
+	}
+
+	private static void writeLong(byte[] b, int offset, long value) {
+		for (int i = 0; i < 8; i++)
+			b[offset + i] = (byte) (value >>> (56 - 8 * i));
+	}
+
+	/**
+	 * A change of a file in the folder
+	 */
+	public static class Change {
+
+		private long sequence;
+		private int type;
+		private String name;
+		private String oldName;
+		private long length;
+		private long hash;
+
+		public Change(long sequence, int type, String name, String oldName, long length, long hash) {
+			this.sequence = sequence;
+			this.type = type;
+			this.name = name;
+			this.oldName = oldName;
+			this.length = length;
+			this.hash = hash;
+		}
+
+		public long getSequence() {
+			return sequence;
+		}
+
+		public int getType() {
+			return type;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * Gets the old name of a renamed file
+		 */
+		public String getOldName() {
+			return oldName;
+		}
+
+		public long getLength() {
+			return length;
+		}
+
+		public long getHash() {
+			return hash;
+		}
+
+	}
+
+}
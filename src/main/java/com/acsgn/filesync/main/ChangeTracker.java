@@ -0,0 +1,157 @@
+package main;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Watches the folder and all of its subfolders for changes and collects the
+ * paths that were created, modified or deleted since the last time they were
+ * taken. When the watch service loses events, the next take asks for a full
+ * scan instead.
+ */
+public class ChangeTracker implements Runnable, Closeable {
+
+	private WatchService watcher;
+	private Map<WatchKey, Path> keys;
+	private Set<Path> changes;
+	private boolean overflow;
+	private boolean broken;
+
+	/**
+	 * Registers the folder and all of its subfolders and starts watching them on
+	 * a daemon thread
+	 *
+	 * @param root The folder that will be watched
+	 * @throws IOException If the folder cannot be watched
+	 */
+	public ChangeTracker(Path root) throws IOException {
+		watcher = root.getFileSystem().newWatchService();
+		keys = new ConcurrentHashMap<WatchKey, Path>();
+		changes = new HashSet<Path>();
+		try {
+			register(root);
+		} catch (IOException e) {
+			watcher.close();
+			throw e;
+		}
+		Thread thread = new Thread(this, "ChangeTracker");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Takes the paths that changed since the last call
+	 *
+	 * @return The changed paths or null if events were lost and the whole folder
+	 *         has to be scanned again
+	 */
+	public synchronized Set<Path> takeChanges() {
+		Set<Path> tmp = overflow || broken ? null : changes;
+		changes = new HashSet<Path>();
+		overflow = false;
+		return tmp;
+	}
+
+	/**
+	 * Gets whether there are changes to take, without taking them
+	 *
+	 * @return Whether paths changed or events were lost since the last take
+	 */
+	public synchronized boolean hasChanges() {
+		return overflow || broken || !changes.isEmpty();
+	}
+
+	/**
+	 * Gets whether the tracker still sees all the changes of the folder
+	 */
+	public synchronized boolean isWatching() {
+		return !broken;
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			WatchKey key;
+			try {
+				key = watcher.take();
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				return;
+			}
+			Path directory = keys.get(key);
+			for (WatchEvent<?> event : key.pollEvents()) {
+				if (event.kind() == OVERFLOW || directory == null) {
+					markOverflow();
+					continue;
+				}
+				Path path = directory.resolve((Path) event.context());
+				boolean isDirectory = Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS);
+				if (event.kind() == ENTRY_MODIFY && isDirectory)
+					continue;
+				if (event.kind() == ENTRY_CREATE && isDirectory) {
+					try {
+						register(path);
+					} catch (IOException e) {
+						markBroken();
+					}
+				}
+				synchronized (this) {
+					changes.add(path);
+				}
+			}
+			if (!key.reset())
+				keys.remove(key);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		watcher.close();
+	}
+
+	private synchronized void markOverflow() {
+		overflow = true;
+	}
+
+	/**
+	 * Marks the tracker as unable to see all the changes from now on, e.g. when
+	 * the limit of watches is reached, so that every take asks for a full scan
+	 */
+	private synchronized void markBroken() {
+		broken = true;
+	}
+
+	private void register(Path directory) throws IOException {
+		Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				keys.put(dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) {
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+}
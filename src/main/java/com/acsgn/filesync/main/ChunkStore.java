@@ -0,0 +1,329 @@
+package main;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.jpountz.xxhash.XXHash64;
+import net.jpountz.xxhash.XXHashFactory;
+
+/**
+ * Index of the content defined chunks of the files in the folder. Files are
+ * split with FastCDC so that the same content produces the same chunks no
+ * matter where it is in a file, and every chunk hash points to a place in a
+ * local file where that content can be read. The index is kept in memory and
+ * built in the background, a location is verified when it is used.
+ */
+public class ChunkStore {
+
+	private static final int MIN_CHUNK = 1 << 14;
+	private static final int AVERAGE_CHUNK = 1 << 16;
+	private static final int MAX_CHUNK = 1 << 18;
+	private static final long MASK_SMALL = mask(18);
+	private static final long MASK_LARGE = mask(14);
+	private static final long seed = 9896;
+	private static final long[] GEAR = new long[256];
+	private static final XXHash64 chunkHash = XXHashFactory.fastestInstance().hash64();
+
+	static {
+		Random random = new Random(seed);
+		for (int i = 0; i < GEAR.length; i++)
+			GEAR[i] = random.nextLong();
+	}
+
+	private File folder;
+	private HashMap<Long, Location> chunks;
+	private HashMap<String, Chunks> files;
+	private ExecutorService indexer;
+	private ArrayList<FileInfo> queued;
+
+	/**
+	 * Creates an empty chunk store for the files in the folder
+	 *
+	 * @param folder The folder that is synchronized
+	 */
+	public ChunkStore(File folder) {
+		this.folder = folder;
+		chunks = new HashMap<Long, Location>();
+		files = new HashMap<String, Chunks>();
+		indexer = Executors.newSingleThreadExecutor(r -> {
+			Thread thread = new Thread(r, "ChunkIndexer");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		});
+	}
+
+	/**
+	 * Gets the chunks of a file, splitting it if it is not indexed with the given
+	 * hash
+	 *
+	 * @param fI Information of the file
+	 * @return Chunks of the file
+	 * @throws IOException
+	 */
+	public Chunks getChunks(FileInfo fI) throws IOException {
+		synchronized (this) {
+			Chunks indexed = files.get(fI.getName());
+			if (indexed != null && indexed.hash == fI.getHash())
+				return indexed;
+		}
+		Chunks split = split(fI.getName(), new File(folder, fI.getName()));
+		split.hash = fI.getHash();
+		add(split);
+		return split;
+	}
+
+	/**
+	 * Finds a local copy of a chunk
+	 *
+	 * @param hash Hash of the chunk
+	 * @return Where the chunk can be read from or null if it is not known
+	 */
+	public synchronized Location find(long hash) {
+		return chunks.get(hash);
+	}
+
+	/**
+	 * Adds the chunks of a file to the index
+	 *
+	 * @param fileChunks Chunks of the file with the hash of the whole file
+	 */
+	public synchronized void add(Chunks fileChunks) {
+		remove(fileChunks.name);
+		files.put(fileChunks.name, fileChunks);
+		long offset = 0;
+		for (int i = 0; i < fileChunks.hashes.length; i++) {
+			chunks.put(fileChunks.hashes[i], new Location(fileChunks.name, offset, fileChunks.lengths[i]));
+			offset += fileChunks.lengths[i];
+		}
+	}
+
+	/**
+	 * Removes the chunks of a file from the index
+	 *
+	 * @param name Name of the file
+	 */
+	public synchronized void remove(String name) {
+		Chunks old = files.remove(name);
+		if (old != null) {
+			for (long hash : old.hashes) {
+				Location location = chunks.get(hash);
+				if (location != null && location.name.equals(name))
+					chunks.remove(hash);
+			}
+		}
+	}
+
+	/**
+	 * Stops the background indexing, files that are still queued are not indexed
+	 */
+	public void close() {
+		indexer.shutdownNow();
+	}
+
+	/**
+	 * Indexes the files that are large enough and not indexed with their current
+	 * hash on the background thread, and forgets the files that are gone
+	 *
+	 * @param fileInfoList All the files in the folder
+	 */
+	public synchronized void indexAsync(ArrayList<FileInfo> fileInfoList) {
+		boolean submit = queued == null;
+		queued = fileInfoList;
+		if (submit)
+			indexer.execute(this::index);
+	}
+
+	private void index() {
+		ArrayList<FileInfo> fileInfoList;
+		synchronized (this) {
+			fileInfoList = queued;
+			queued = null;
+		}
+		HashSet<String> names = new HashSet<>();
+		for (FileInfo fI : fileInfoList) {
+			names.add(fI.getName());
+			if (fI.getLength() < Settings.CHUNK_MIN_LENGTH)
+				continue;
+			try {
+				getChunks(fI);
+			} catch (IOException e) {
+				continue;
+			}
+		}
+		synchronized (this) {
+			for (String name : new ArrayList<>(files.keySet())) {
+				if (!names.contains(name))
+					remove(name);
+			}
+		}
+	}
+
+	/**
+	 * Splits a file into content defined chunks
+	 *
+	 * @param name Name of the file relative to the folder
+	 * @param file The file that will be split
+	 * @return Hashes and lengths of the chunks
+	 * @throws IOException
+	 */
+	public static Chunks split(String name, File file) throws IOException {
+		ArrayList<Long> hashes = new ArrayList<>();
+		ArrayList<Integer> lengths = new ArrayList<>();
+		byte[] buf = new byte[4 * MAX_CHUNK];
+		int start = 0;
+		int end = 0;
+		boolean eof = false;
+		try (InputStream in = new FileInputStream(file)) {
+			while (!eof || end > start) {
+				int bytesRead;
+				while (!eof && end < buf.length) {
+					if ((bytesRead = in.read(buf, end, buf.length - end)) == -1)
+						eof = true;
+					else
+						end += bytesRead;
+				}
+				while (end - start >= MAX_CHUNK || (eof && end > start)) {
+					int length = cut(buf, start, end - start);
+					hashes.add(chunkHash.hash(buf, start, length, seed));
+					lengths.add(length);
+					start += length;
+				}
+				System.arraycopy(buf, start, buf, 0, end - start);
+				end -= start;
+				start = 0;
+			}
+		}
+		Chunks split = new Chunks(name, new long[hashes.size()], new int[lengths.size()]);
+		for (int i = 0; i < split.hashes.length; i++) {
+			split.hashes[i] = hashes.get(i);
+			split.lengths[i] = lengths.get(i);
+		}
+		return split;
+	}
+
+	/**
+	 * Hashes a chunk the same way the chunks of the files are hashed
+	 */
+	public static long hash(byte[] buf, int offset, int length) {
+		return chunkHash.hash(buf, offset, length, seed);
+	}
+
+	/**
+	 * Finds the end of the chunk that starts at the offset with FastCDC's
+	 * normalized chunking, a stricter mask is used before the average size and a
+	 * looser one after it
+	 */
+	private static int cut(byte[] buf, int offset, int length) {
+		if (length <= MIN_CHUNK)
+			return length;
+		int limit = Math.min(length, MAX_CHUNK);
+		int normal = Math.min(limit, AVERAGE_CHUNK);
+		long fingerprint = 0;
+		int i = MIN_CHUNK;
+		for (; i < normal; i++) {
+			fingerprint = (fingerprint << 1) + GEAR[buf[offset + i] & 0xff];
+			if ((fingerprint & MASK_SMALL) == 0)
+				return i;
+		}
+		for (; i < limit; i++) {
+			fingerprint = (fingerprint << 1) + GEAR[buf[offset + i] & 0xff];
+			if ((fingerprint & MASK_LARGE) == 0)
+				return i;
+		}
+		return limit;
+	}
+
+	private static long mask(int bits) {
+		return ((1L << bits) - 1) << (64 - bits);
+	}
+
+	/**
+	 * Hashes and lengths of the chunks of a file in order
+	 */
+	public static class Chunks {
+
+		private String name;
+		private long[] hashes;
+		private int[] lengths;
+		private transient long hash;
+
+		public Chunks(String name, long[] hashes, int[] lengths) {
+			this.name = name;
+			this.hashes = hashes;
+			this.lengths = lengths;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int size() {
+			return hashes.length;
+		}
+
+		public long getHash(int chunk) {
+			return hashes[chunk];
+		}
+
+		public int getLength(int chunk) {
+			return lengths[chunk];
+		}
+
+		/**
+		 * Calculates where every chunk starts in the file
+		 */
+		public long[] getOffsets() {
+			long[] offsets = new long[lengths.length];
+			for (int i = 1; i < lengths.length; i++)
+				offsets[i] = offsets[i - 1] + lengths[i - 1];
+			return offsets;
+		}
+
+		/**
+		 * Sets the hash of the whole file these chunks belong to
+		 */
+		public void setFileHash(long hash) {
+			this.hash = hash;
+		}
+
+	}
+
+	/**
+	 * Place of a chunk in a local file
+	 */
+	public static class Location {
+
+		private String name;
+		private long offset;
+		private int length;
+
+		private Location(String name, long offset, int length) {
+			this.name = name;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getOffset() {
+			return offset;
+		}
+
+		public int getLength() {
+			return length;
+		}
+
+	}
+
+}
@@ -0,0 +1,174 @@
+package main;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import main.ChangeJournal.Change;
+
+/**
+ * Classifies how the files of the folder changed. The entries that changed are
+ * visited once, the current state is looked up by name and the disappeared
+ * entries are looked up by content hash, so the time is linear in the number of
+ * changed entries.
+ * <p>
+ * An entry that disappeared and an entry that appeared with the same content
+ * are a rename. When all the files of a directory were renamed into another
+ * directory that did not exist before, keeping their relative names, the
+ * renames are reported as a single move of the directory.
+ */
+public class DiffEngine {
+
+	private DiffEngine() {
+	}
+
+	/**
+	 * Finds the changes of the folder
+	 *
+	 * @param before The entries that changed with their state before the changes,
+	 *               null for the entries that did not exist
+	 * @param after  The current files of the folder
+	 * @return The changes in the order they have to be applied, without sequence
+	 *         numbers
+	 */
+	public static ArrayList<Change> diff(Map<String, FileInfo> before, FileIndex after) {
+		ArrayList<Change> modified = new ArrayList<>();
+		ArrayList<FileInfo> added = new ArrayList<>();
+		HashMap<Long, ArrayDeque<FileInfo>> removed = new HashMap<>();
+		for (Map.Entry<String, FileInfo> entry : before.entrySet()) {
+			FileInfo old = entry.getValue();
+			FileInfo now = after.get(entry.getKey());
+			if (old == null && now != null)
+				added.add(now);
+			else if (old != null && now == null)
+				removed.computeIfAbsent(old.getHash(), k -> new ArrayDeque<>()).add(old);
+			else if (old != null && (old.getHash() != now.getHash() || old.getLength() != now.getLength()))
+				modified.add(change(ChangeJournal.MODIFY, now, null));
+		}
+
+		ArrayList<FileInfo[]> renamed = new ArrayList<>();
+		ArrayList<Change> created = new ArrayList<>();
+		for (FileInfo fI : added) {
+			ArrayDeque<FileInfo> candidates = removed.get(fI.getHash());
+			FileInfo old = candidates == null ? null : candidates.peek();
+			if (old != null && old.getLength() == fI.getLength()) {
+				candidates.poll();
+				renamed.add(new FileInfo[] { old, fI });
+			} else
+				created.add(change(ChangeJournal.CREATE, fI, null));
+		}
+
+		HashMap<String, Integer> gone = new HashMap<>();
+		for (FileInfo[] pair : renamed)
+			countDirectories(pair[0].getName(), gone);
+		ArrayList<Change> changes = new ArrayList<>(modified);
+		for (ArrayDeque<FileInfo> candidates : removed.values()) {
+			for (FileInfo fI : candidates) {
+				changes.add(change(ChangeJournal.DELETE, fI, null));
+				countDirectories(fI.getName(), gone);
+			}
+		}
+		changes.addAll(moves(renamed, after, gone));
+		changes.addAll(created);
+		return changes;
+	}
+
+	/**
+	 * Turns the renames into directory moves where possible
+	 *
+	 * @param renamed Pairs of the old and the new entry of every renamed file
+	 * @param after   The current files of the folder
+	 * @param gone    Number of the files that disappeared from every directory
+	 * @return The moves followed by the renames that are not part of a move
+	 */
+	private static ArrayList<Change> moves(ArrayList<FileInfo[]> renamed, FileIndex after,
+			HashMap<String, Integer> gone) {
+		HashMap<String, Integer> support = new HashMap<>();
+		ArrayList<String[][]> candidates = new ArrayList<>(renamed.size());
+		for (FileInfo[] pair : renamed) {
+			String[][] dirs = directoryPairs(pair[0].getName(), pair[1].getName());
+			candidates.add(dirs);
+			for (String[] dir : dirs)
+				support.merge(dir[0] + '\0' + dir[1], 1, Integer::sum);
+		}
+		HashMap<String, Boolean> valid = new HashMap<>();
+		LinkedHashMap<String, Change> moves = new LinkedHashMap<>();
+		ArrayList<Change> renames = new ArrayList<>();
+		for (int i = 0; i < renamed.size(); i++) {
+			FileInfo[] pair = renamed.get(i);
+			String[] move = null;
+			for (String[] dir : candidates.get(i)) {
+				String key = dir[0] + '\0' + dir[1];
+				Boolean ok = valid.get(key);
+				if (ok == null) {
+					int count = support.get(key);
+					ok = after.countUnder(dir[0]) == 0 && gone.get(dir[0]) == count
+							&& after.countUnder(dir[1]) == count;
+					valid.put(key, ok);
+				}
+				if (ok) {
+					move = dir;
+					break;
+				}
+			}
+			if (move == null) {
+				renames.add(change(ChangeJournal.RENAME, pair[1], pair[0].getName()));
+				continue;
+			}
+			String key = move[0] + '\0' + move[1];
+			if (!moves.containsKey(key))
+				moves.put(key, new Change(0, ChangeJournal.MOVE, move[1], move[0], support.get(key), 0));
+		}
+		ArrayList<Change> changes = new ArrayList<>(moves.values());
+		changes.addAll(renames);
+		return changes;
+	}
+
+	/**
+	 * Gets the directories that may have been moved to rename a file, from the
+	 * shallowest to the deepest. The file keeps its name below the directory, and
+	 * neither directory is the root.
+	 *
+	 * @param oldName Old name of the file
+	 * @param newName New name of the file
+	 * @return Pairs of the old and the new name of the directory
+	 */
+	private static String[][] directoryPairs(String oldName, String newName) {
+		String[] o = oldName.split(Pattern.quote(File.separator));
+		String[] n = newName.split(Pattern.quote(File.separator));
+		int common = 0;
+		while (common < o.length - 1 && common < n.length - 1
+				&& o[o.length - 1 - common].equals(n[n.length - 1 - common]))
+			common++;
+		if (common == 0)
+			return new String[0][];
+		String[][] pairs = new String[common][];
+		for (int k = common; k >= 1; k--)
+			pairs[common - k] = new String[] { join(o, o.length - k), join(n, n.length - k) };
+		return pairs;
+	}
+
+	/**
+	 * Counts a file that disappeared in all the directories above it
+	 */
+	private static void countDirectories(String name, HashMap<String, Integer> gone) {
+		for (int i = name.indexOf(File.separatorChar); i > 0; i = name.indexOf(File.separatorChar, i + 1))
+			gone.merge(name.substring(0, i), 1, Integer::sum);
+	}
+
+	private static String join(String[] parts, int count) {
+		StringBuilder sb = new StringBuilder(parts[0]);
+		for (int i = 1; i < count; i++)
+			sb.append(File.separator).append(parts[i]);
+		return sb.toString();
+	}
+
+	private static Change change(int type, FileInfo fI, String oldName) {
+		return new Change(0, type, fI.getName(), oldName == null ? "" : oldName, fI.getLength(), fI.getHash());
+	}
+
+}
@@ -0,0 +1,173 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Checksum;
+
+import net.jpountz.xxhash.StreamingXXHash64;
+import net.jpountz.xxhash.XXHash64;
+import net.jpountz.xxhash.XXHashFactory;
+
+/**
+ * Calculates xxHash64 values of files. Every thread has its own hashing state
+ * and buffers so that files can be hashed concurrently by the scan workers
+ * without allocating anything per file.
+ * <p>
+ * Files that fit into the direct buffer are read with a single channel read and
+ * hashed in place. Larger files are read in buffer sized blocks and fed to a
+ * streaming hash, which gives the same value.
+ */
+public class FileHasher {
+
+	private static final int seed = 9896;
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final int CHUNK_SIZE = 1 << 15;
+	private static final XXHashFactory factory = XXHashFactory.fastestInstance();
+	private static final XXHash64 oneShot = factory.hash64();
+
+	private static final ThreadLocal<State> states = ThreadLocal.withInitial(State::new);
+
+	private FileHasher() {
+	}
+
+	/**
+	 * Calculates the hash of the given file with the hashing state of the calling
+	 * thread
+	 *
+	 * @param file The file that will be hashed
+	 * @return xxHash64 value of the content of the file
+	 * @throws IOException
+	 */
+	public static long hash(File file) throws IOException {
+		State state = states.get();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() < BUFFER_SIZE) {
+				ByteBuffer buffer = state.direct;
+				buffer.clear();
+				while (buffer.hasRemaining() && channel.read(buffer) != -1)
+					;
+				if (buffer.hasRemaining()) {
+					buffer.flip();
+					return oneShot.hash(buffer, 0, buffer.limit(), seed);
+				}
+				channel.position(0);
+			}
+			return hash(channel, state, Long.MAX_VALUE);
+		}
+	}
+
+	/**
+	 * Calculates the hash of content that is in the memory, it is the same value
+	 * that {@link #hash(File)} gives for a file with that content
+	 *
+	 * @param data   The content
+	 * @param offset Where the content starts in the array
+	 * @param length Length of the content
+	 * @return xxHash64 value of the content
+	 */
+	public static long hash(byte[] data, int offset, int length) {
+		return oneShot.hash(data, offset, length, seed);
+	}
+
+	/**
+	 * Calculates the hash of the beginning of the given file, it is the value the
+	 * checksum of {@link #newChecksum()} has after that many bytes
+	 *
+	 * @param file   The file that will be hashed
+	 * @param length Number of bytes from the beginning of the file
+	 * @return xxHash64 value of the bytes, of fewer if the file is shorter
+	 * @throws IOException
+	 */
+	public static long hashPrefix(File file, long length) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			return hash(channel, states.get(), length);
+		}
+	}
+
+	/**
+	 * Creates a new checksum that gives the same values as {@link #hash(File)}
+	 *
+	 * @return A fresh checksum
+	 */
+	public static Checksum newChecksum() {
+		return factory.newStreamingHash64(seed).asChecksum();
+	}
+
+	/**
+	 * Calculates the hash of every block of the given file
+	 *
+	 * @param file      The file that will be hashed
+	 * @param blockSize Size of the blocks
+	 * @return xxHash64 value of every block, the last one may be shorter
+	 * @throws IOException
+	 */
+	public static long[] hashBlocks(File file, int blockSize) throws IOException {
+		State state = states.get();
+		StreamingXXHash64 hash = state.streaming;
+		ByteBuffer buffer = state.direct;
+		byte[] array = state.array;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long length = channel.size();
+			long[] blocks = new long[(int) ((length + blockSize - 1) / blockSize)];
+			long position = 0;
+			for (int i = 0; i < blocks.length; i++) {
+				hash.reset();
+				long end = Math.min(length, position + blockSize);
+				while (position < end) {
+					buffer.clear();
+					buffer.limit((int) Math.min(buffer.capacity(), end - position));
+					int bytesRead = channel.read(buffer, position);
+					if (bytesRead == -1)
+						throw new IOException("File is shorter than expected");
+					position += bytesRead;
+					buffer.flip();
+					while (buffer.hasRemaining()) {
+						int size = Math.min(array.length, buffer.remaining());
+						buffer.get(array, 0, size);
+						hash.update(array, 0, size);
+					}
+				}
+				blocks[i] = hash.getValue();
+			}
+			return blocks;
+		}
+	}
+
+	private static long hash(FileChannel channel, State state, long limit) throws IOException {
+		StreamingXXHash64 hash = state.streaming;
+		ByteBuffer buffer = state.direct;
+		byte[] array = state.array;
+		hash.reset();
+		long position = 0;
+		while (position < limit) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), limit - position));
+			int bytesRead = channel.read(buffer);
+			if (bytesRead == -1)
+				break;
+			position += bytesRead;
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				int length = Math.min(array.length, buffer.remaining());
+				buffer.get(array, 0, length);
+				hash.update(array, 0, length);
+			}
+		}
+		return hash.getValue();
+	}
+
+	/**
+	 * Hashing state and buffers of one thread
+	 */
+	private static class State {
+
+		private StreamingXXHash64 streaming = factory.newStreamingHash64(seed);
+		private ByteBuffer direct = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		private byte[] array = new byte[CHUNK_SIZE];
+
+	}
+
+}
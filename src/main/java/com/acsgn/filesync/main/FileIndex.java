@@ -0,0 +1,257 @@
+package main;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Index of the files of the folder by name and by content hash. Names are kept
+ * in a sorted map so that the files under a directory can be found. Hashes are
+ * kept in an open addressing table of primitive longs, where a slot holds either
+ * a single file or an array of the files that share the same content, so
+ * duplicate files are all kept and no key is boxed.
+ * <p>
+ * The index is not synchronized, it is guarded by its owner.
+ */
+public class FileIndex {
+
+	private static final FileInfo[] NONE = new FileInfo[0];
+	private static final int MIN_CAPACITY = 16;
+
+	private TreeMap<String, FileInfo> names = new TreeMap<>();
+	private long[] keys = new long[MIN_CAPACITY];
+	private Object[] values = new Object[MIN_CAPACITY];
+	private int slots;
+
+	/**
+	 * Adds a file or replaces the file with the same name
+	 *
+	 * @param fI Information of the file
+	 * @return The replaced file or null if there was none
+	 */
+	public FileInfo put(FileInfo fI) {
+		FileInfo old = names.put(fI.getName(), fI);
+		if (old != null)
+			removeHash(old);
+		addHash(fI);
+		return old;
+	}
+
+	/**
+	 * Removes the file with the given name
+	 *
+	 * @param name Name of the file relative to the folder
+	 * @return The removed file or null if there was none
+	 */
+	public FileInfo remove(String name) {
+		FileInfo old = names.remove(name);
+		if (old != null)
+			removeHash(old);
+		return old;
+	}
+
+	/**
+	 * Removes the files under a directory
+	 *
+	 * @param directory Name of the directory relative to the folder
+	 * @return The removed files
+	 */
+	public ArrayList<FileInfo> removeUnder(String directory) {
+		ArrayList<FileInfo> removed = new ArrayList<>();
+		String prefix = directory + File.separator;
+		Iterator<FileInfo> iterator = names.subMap(prefix, prefix + Character.MAX_VALUE).values().iterator();
+		while (iterator.hasNext()) {
+			FileInfo fI = iterator.next();
+			removeHash(fI);
+			removed.add(fI);
+			iterator.remove();
+		}
+		return removed;
+	}
+
+	/**
+	 * Gets the files under a directory
+	 *
+	 * @param directory Name of the directory relative to the folder
+	 * @return The files in the directory and its subdirectories
+	 */
+	public ArrayList<FileInfo> getUnder(String directory) {
+		String prefix = directory + File.separator;
+		return new ArrayList<>(names.subMap(prefix, prefix + Character.MAX_VALUE).values());
+	}
+
+	/**
+	 * Counts the files under a directory
+	 *
+	 * @param directory Name of the directory relative to the folder
+	 * @return Number of the files in the directory and its subdirectories
+	 */
+	public int countUnder(String directory) {
+		String prefix = directory + File.separator;
+		return names.subMap(prefix, prefix + Character.MAX_VALUE).size();
+	}
+
+	public FileInfo get(String name) {
+		return names.get(name);
+	}
+
+	/**
+	 * Gets the files with the given content
+	 *
+	 * @param hash Hash of the content
+	 * @return The files, the array is empty if there are none
+	 */
+	public FileInfo[] getByHash(long hash) {
+		int slot = find(hash);
+		if (slot < 0)
+			return NONE;
+		Object value = values[slot];
+		if (value instanceof FileInfo)
+			return new FileInfo[] { (FileInfo) value };
+		return ((FileInfo[]) value).clone();
+	}
+
+	/**
+	 * Gets whether a file with the given content exists
+	 *
+	 * @param hash Hash of the content
+	 */
+	public boolean containsHash(long hash) {
+		return find(hash) >= 0;
+	}
+
+	/**
+	 * Gets the files sorted by their names
+	 */
+	public Collection<FileInfo> files() {
+		return names.values();
+	}
+
+	public Set<String> names() {
+		return names.keySet();
+	}
+
+	public int size() {
+		return names.size();
+	}
+
+	public void clear() {
+		names.clear();
+		keys = new long[MIN_CAPACITY];
+		values = new Object[MIN_CAPACITY];
+		slots = 0;
+	}
+
+	private void addHash(FileInfo fI) {
+		long hash = fI.getHash();
+		int slot = find(hash);
+		if (slot >= 0) {
+			Object value = values[slot];
+			FileInfo[] files;
+			if (value instanceof FileInfo)
+				files = new FileInfo[] { (FileInfo) value, fI };
+			else {
+				FileInfo[] old = (FileInfo[]) value;
+				files = Arrays.copyOf(old, old.length + 1);
+				files[old.length] = fI;
+			}
+			values[slot] = files;
+			return;
+		}
+		if (slots + 1 > values.length * 3 / 4) {
+			resize(values.length * 2);
+			slot = find(hash);
+		}
+		slot = -slot - 1;
+		keys[slot] = hash;
+		values[slot] = fI;
+		slots++;
+	}
+
+	private void removeHash(FileInfo fI) {
+		int slot = find(fI.getHash());
+		if (slot < 0)
+			return;
+		Object value = values[slot];
+		if (value instanceof FileInfo) {
+			if (value == fI)
+				delete(slot);
+			return;
+		}
+		FileInfo[] files = (FileInfo[]) value;
+		for (int i = 0; i < files.length; i++) {
+			if (files[i] == fI) {
+				if (files.length == 2)
+					values[slot] = files[1 - i];
+				else {
+					FileInfo[] rest = new FileInfo[files.length - 1];
+					System.arraycopy(files, 0, rest, 0, i);
+					System.arraycopy(files, i + 1, rest, i, rest.length - i);
+					values[slot] = rest;
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Finds the slot of a hash
+	 *
+	 * @return The slot, or -(empty slot + 1) where the hash would be added
+	 */
+	private int find(long hash) {
+		int mask = values.length - 1;
+		int slot = mix(hash) & mask;
+		while (values[slot] != null) {
+			if (keys[slot] == hash)
+				return slot;
+			slot = (slot + 1) & mask;
+		}
+		return -slot - 1;
+	}
+
+	/**
+	 * Empties a slot and moves the following entries of the probe sequence back,
+	 * so that no tombstones are needed
+	 */
+	private void delete(int slot) {
+		int mask = values.length - 1;
+		values[slot] = null;
+		slots--;
+		int next = (slot + 1) & mask;
+		while (values[next] != null) {
+			int home = mix(keys[next]) & mask;
+			if (((next - home) & mask) >= ((next - slot) & mask)) {
+				keys[slot] = keys[next];
+				values[slot] = values[next];
+				values[next] = null;
+				slot = next;
+			}
+			next = (next + 1) & mask;
+		}
+	}
+
+	private void resize(int capacity) {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new long[capacity];
+		values = new Object[capacity];
+		for (int i = 0; i < oldValues.length; i++) {
+			if (oldValues[i] != null) {
+				int slot = -find(oldKeys[i]) - 1;
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private static int mix(long hash) {
+		long h = hash * 0x9e3779b97f4a7c15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+}
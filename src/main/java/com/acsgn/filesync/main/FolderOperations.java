@@ -1,142 +1,568 @@
-package main;
-
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FilenameFilter;
-import java.io.IOException;
-import java.util.AbstractMap.SimpleEntry;
-import java.util.ArrayList;
-import java.util.Hashtable;
-import java.util.zip.Checksum;
-
-import net.jpountz.xxhash.StreamingXXHash64;
-import net.jpountz.xxhash.XXHashFactory;
-
-public class FolderOperations {
-
-	private static final int seed = 9896;
-	private static final XXHashFactory factory = XXHashFactory.fastestInstance();
-	private StreamingXXHash64 hashing;
-
-	private File folder;
-	private FilenameFilter fnf;
-	private Hashtable<String, SimpleEntry<Long, Long>> calculatedHashes;
-
-	/**
-	 * Creates a folderOperations object to perform file operations such as getting
-	 * list of files in the folder, deleting a file etc. Also creates a INUSE file
-	 * that deletes itself on exit to lock the folder for other instances of
-	 * DriveCloud
-	 * 
-	 * @param folderPath Path of the folder that will be used on operations
-	 */
-	public FolderOperations(String folderPath) {
-		folder = new File(folderPath);
-		hashing = factory.newStreamingHash64(seed);
-		calculatedHashes = new Hashtable<String, SimpleEntry<Long, Long>>();
-		fnf = (File dir, String name) -> !name.endsWith(".tmp");
-	}
-
-	public ArrayList<FileInfo> update() {
-		return updateHelper(folder);
-	}
-
-	private ArrayList<FileInfo> updateHelper(File directory) {
-		ArrayList<FileInfo> tmp = new ArrayList<>();
-		for (File file : directory.listFiles(fnf)) {
-			if (file.isFile()) {
-				try {
-					long hash = calcXXHash(file);
-					String name = file.getAbsolutePath().substring(folder.getAbsolutePath().length() + 1);
-					tmp.add(new FileInfo(name, file.length(), hash));
-				} catch (IOException e) {
-					continue;
-				}
-			} else
-				tmp.addAll(updateHelper(file));
-		}
-		return tmp;
-	}
-
-	/**
-	 * Changes the name of the file
-	 * 
-	 * @param oldName The old name that will be changed
-	 * @param newName The new name that will be used
-	 */
-	public void renameFile(String oldName, String newName) {
-		File file = new File(getFilePath(oldName));
-		File newFile = new File(getFilePath(newName));
-		file.renameTo(newFile);
-		calculatedHashes.put(newFile.getAbsolutePath(), calculatedHashes.remove(file.getAbsolutePath()));
-	}
-
-	/**
-	 * Deletes The provided file
-	 * 
-	 * @param filename The name of file to be deleted
-	 */
-	public void deleteFile(String filename) {
-		File file = new File(getFilePath(filename));
-		file.delete();
-		calculatedHashes.remove(file.getAbsolutePath());
-	}
-
-	/**
-	 * Gets the path to the file with the given name
-	 * 
-	 * @param name The name of the file
-	 * @return The path of the file
-	 */
-	public String getFilePath(String name) {
-		return folder.getPath() + "/" + name;
-	}
-
-	/**
-	 * Checks hash of the file that received from other user.
-	 * 
-	 * @param fileName Name of the file that will be checked
-	 * @param hash     Hash of the file that was sent from other user
-	 * @return Result of hash checking
-	 */
-	public boolean hashCheck(String fileName, long hash) {
-		try {
-			return hash == calcXXHash(new File(getFilePath(fileName)));
-		} catch (IOException e) {
-			return false;
-		}
-	}
-
-	public Checksum getChecksum() {
-		return factory.newStreamingHash64(seed).asChecksum();
-	}
-
-	public void registerHash(long hash, String path) {
-		File file = new File(path);
-		SimpleEntry<Long, Long> pair = new SimpleEntry<Long, Long>(file.lastModified(), hash);
-		calculatedHashes.put(file.getAbsolutePath(), pair);
-	}
-
-	private long calcXXHash(File file) throws IOException {
-		if (calculatedHashes.containsKey(file.getAbsolutePath())) {
-			SimpleEntry<Long, Long> pair = calculatedHashes.get(file.getAbsolutePath());
-			if (pair.getKey() == file.lastModified())
-				return pair.getValue();
-		}
-		FileInputStream fis = new FileInputStream(file);
-		byte[] buffer = new byte[16384];
-		int bytesRead;
-		do {
-			bytesRead = fis.read(buffer);
-			if (bytesRead > 0)
-				hashing.update(buffer, 0, bytesRead);
-		} while (bytesRead != -1);
-		fis.close();
-		long result = hashing.getValue();
-		hashing.reset();
-		SimpleEntry<Long, Long> pair = new SimpleEntry<Long, Long>(file.lastModified(), result);
-		calculatedHashes.put(file.getAbsolutePath(), pair);
-		return result;
-	}
-
-}
+package main;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.Checksum;
+
+public class FolderOperations implements Closeable {
+
+	private static final int SCAN_BATCH = 32;
+	private static final String METADATA_PREFIX = ".filesync";
+
+	private File folder;
+	private FilenameFilter fnf;
+	private HashCache calculatedHashes;
+	private ChunkStore chunkStore;
+	private ForkJoinPool scanPool;
+	private ChangeTracker tracker;
+	private FileIndex fileTable;
+	private MerkleTree tree;
+	private ChangeJournal journal;
+	private SyncState syncState;
+	private TreeMap<String, FileInfo> changedEntries;
+	private ArrayList<FileInfo> fileInfoList;
+	private boolean listChanged;
+	private long version;
+	private SnapshotService snapshots = new SnapshotService(this);
+
+	/**
+	 * Creates a folderOperations object to perform file operations such as getting
+	 * list of files in the folder, deleting a file etc. Also creates a INUSE file
+	 * that deletes itself on exit to lock the folder for other instances of
+	 * DriveCloud
+	 * 
+	 * @param folderPath Path of the folder that will be used on operations
+	 */
+	public FolderOperations(String folderPath) {
+		this(folderPath, Settings.SCAN_PARALLELISM);
+	}
+
+	/**
+	 * Creates a folderOperations object that scans the folder with the given
+	 * number of worker threads
+	 * 
+	 * @param folderPath  Path of the folder that will be used on operations
+	 * @param parallelism Number of threads that scan and hash the folder
+	 */
+	public FolderOperations(String folderPath, int parallelism) {
+		folder = new File(folderPath).getAbsoluteFile();
+		calculatedHashes = new HashCache(folder);
+		chunkStore = new ChunkStore(folder);
+		journal = new ChangeJournal(folder);
+		syncState = new SyncState(folder);
+		fnf = (File dir, String name) -> !name.endsWith(".tmp")
+				&& !(name.startsWith(METADATA_PREFIX) && dir.equals(folder));
+		scanPool = new ForkJoinPool(Math.max(1, parallelism));
+		fileTable = new FileIndex();
+		tree = new MerkleTree();
+		changedEntries = new TreeMap<String, FileInfo>();
+		try {
+			tracker = new ChangeTracker(folder.toPath());
+		} catch (IOException e) {
+			System.err.println("Couldn't watch the folder, it will be scanned on every update");
+		}
+	}
+
+	/**
+	 * Gets an up to date list of the files. Sessions that ask at the same time
+	 * share one scan of the folder, see {@link SnapshotService}.
+	 * 
+	 * @return Informations of all the files in the folder
+	 */
+	public List<FileInfo> update() {
+		return snapshots.get().getFiles();
+	}
+
+	/**
+	 * Brings the list of files up to date. The whole folder is scanned only the
+	 * first time and when the change tracker lost events, otherwise only the paths
+	 * that changed since the last update are hashed again.
+	 * 
+	 * @return Informations of all the files in the folder
+	 */
+	synchronized ArrayList<FileInfo> refresh() {
+		long start = System.nanoTime();
+		Set<Path> changes = tracker == null ? null : tracker.takeChanges();
+		if (changes == null || fileInfoList == null)
+			scanFolder();
+		else if (!changes.isEmpty())
+			applyChanges(changes);
+		Metrics.scanMillis.record((System.nanoTime() - start) / 1000000);
+		if (listChanged) {
+			fileInfoList = new ArrayList<>(fileTable.files());
+			Metrics.setManifestFiles(fileInfoList.size());
+			listChanged = false;
+			version++;
+			chunkStore.indexAsync(fileInfoList);
+		}
+		recordChanges();
+		return fileInfoList;
+	}
+
+	/**
+	 * Gets whether the files were changed through this object since the last
+	 * refresh
+	 */
+	synchronized boolean isModified() {
+		return listChanged;
+	}
+
+	/**
+	 * Gets the version of the list of files, it grows every time a refresh finds
+	 * that the files changed
+	 */
+	synchronized long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Gets whether the change tracker sees every change of the folder
+	 */
+	boolean isWatched() {
+		return tracker != null && tracker.isWatching();
+	}
+
+	/**
+	 * Gets whether the folder may have changed on disk since the last refresh
+	 * 
+	 * @return False only if the change tracker watches the folder and saw nothing
+	 */
+	boolean mayHaveChanged() {
+		return tracker == null || tracker.hasChanges();
+	}
+
+	/**
+	 * Scans the folder and its subfolders concurrently and hashes every file
+	 */
+	private void scanFolder() {
+		boolean baseline = false;
+		if (fileInfoList == null) {
+			// The hash cache still knows the folder as it was when it was last updated
+			for (FileInfo fI : calculatedHashes.getFiles())
+				changedEntries.put(fI.getName(), fI);
+			baseline = changedEntries.isEmpty();
+		}
+		for (FileInfo fI : fileTable.files())
+			changed(fI.getName(), fI);
+		fileTable.clear();
+		tree.clear();
+		for (FileInfo fI : scan(folder))
+			putEntry(fI);
+		if (baseline)
+			changedEntries.clear();
+		calculatedHashes.retainAll(fileTable.names());
+		calculatedHashes.flush();
+		listChanged = true;
+	}
+
+	/**
+	 * Hashes the files that changed and scans the folders that were created again
+	 * 
+	 * @param changes Paths that changed since the last update
+	 */
+	private void applyChanges(Set<Path> changes) {
+		boolean changed = false;
+		for (Path path : changes) {
+			File file = path.toFile();
+			if (!file.getAbsolutePath().startsWith(folder.getAbsolutePath() + File.separator)
+					|| !fnf.accept(file.getParentFile(), file.getName()))
+				continue;
+			changed = true;
+			String name = getName(file);
+			removeEntries(name, !file.exists());
+			if (file.isFile()) {
+				try {
+					putEntry(new FileInfo(name, file.length(), calcXXHash(file)));
+				} catch (IOException e) {
+					continue;
+				}
+			} else if (file.isDirectory()) {
+				for (FileInfo fI : scan(file))
+					putEntry(fI);
+			}
+		}
+		if (changed) {
+			calculatedHashes.flush();
+			listChanged = true;
+		}
+	}
+
+	/**
+	 * Removes the entry with the given name and, if it was a folder, the entries
+	 * of all the files in it
+	 * 
+	 * @param name   Name of a file or a folder relative to the folder
+	 * @param forget Whether the cached hashes of the entries are removed too
+	 */
+	private void removeEntries(String name, boolean forget) {
+		FileInfo fI = fileTable.remove(name);
+		if (fI != null) {
+			changed(name, fI);
+			tree.remove(name);
+			if (forget)
+				calculatedHashes.remove(name);
+		}
+		for (FileInfo removed : fileTable.removeUnder(name)) {
+			changed(removed.getName(), removed);
+			if (forget)
+				calculatedHashes.remove(removed.getName());
+			tree.remove(removed.getName());
+		}
+	}
+
+	private ArrayList<FileInfo> scan(File directory) {
+		File[] files = directory.listFiles(fnf);
+		if (files == null)
+			return new ArrayList<>();
+		return scanPool.invoke(new ScanTask(files, 0, files.length));
+	}
+
+	/**
+	 * Changes the name of the file
+	 * 
+	 * @param oldName The old name that will be changed
+	 * @param newName The new name that will be used
+	 */
+	public synchronized void renameFile(String oldName, String newName) {
+		File file = new File(getFilePath(oldName));
+		File newFile = new File(getFilePath(newName));
+		newFile.getParentFile().mkdirs();
+		file.renameTo(newFile);
+		calculatedHashes.rename(oldName, newName);
+		chunkStore.remove(oldName);
+		FileInfo fI = fileTable.remove(oldName);
+		if (fI != null) {
+			changed(oldName, fI);
+			tree.remove(oldName);
+			putEntry(new FileInfo(newName, fI.getLength(), fI.getHash()));
+		}
+		listChanged = true;
+		recordChanges();
+	}
+
+	/**
+	 * Moves a directory with all of its files
+	 * 
+	 * @param oldName The old name of the directory
+	 * @param newName The new name of the directory, it must not exist yet
+	 * @return Whether the directory was moved
+	 */
+	public synchronized boolean renameDirectory(String oldName, String newName) {
+		File directory = new File(getFilePath(oldName));
+		File newDirectory = new File(getFilePath(newName));
+		if (!directory.isDirectory() || newDirectory.exists())
+			return false;
+		newDirectory.getParentFile().mkdirs();
+		if (!directory.renameTo(newDirectory))
+			return false;
+		for (FileInfo fI : fileTable.removeUnder(oldName)) {
+			String name = newName + fI.getName().substring(oldName.length());
+			changed(fI.getName(), fI);
+			tree.remove(fI.getName());
+			calculatedHashes.rename(fI.getName(), name);
+			chunkStore.remove(fI.getName());
+			putEntry(new FileInfo(name, fI.getLength(), fI.getHash()));
+		}
+		listChanged = true;
+		recordChanges();
+		return true;
+	}
+
+	/**
+	 * Deletes The provided file
+	 * 
+	 * @param filename The name of file to be deleted
+	 */
+	public synchronized void deleteFile(String filename) {
+		File file = new File(getFilePath(filename));
+		file.delete();
+		calculatedHashes.remove(filename);
+		chunkStore.remove(filename);
+		FileInfo fI = fileTable.remove(filename);
+		if (fI != null) {
+			changed(filename, fI);
+			tree.remove(filename);
+		}
+		listChanged = true;
+		recordChanges();
+	}
+
+	/**
+	 * Stops watching the folder and the background threads, and writes the hash
+	 * cache and the change journal. The object can't be used afterwards.
+	 */
+	@Override
+	public synchronized void close() {
+		if (tracker != null) {
+			try {
+				tracker.close();
+			} catch (IOException e) {
+				System.err.println("Couldn't stop watching the folder");
+			}
+		}
+		scanPool.shutdown();
+		chunkStore.close();
+		calculatedHashes.close();
+		journal.close();
+	}
+
+	/**
+	 * Gets the path to the file with the given name
+	 * 
+	 * @param name The name of the file
+	 * @return The path of the file
+	 */
+	public String getFilePath(String name) {
+		return folder.getPath() + "/" + name;
+	}
+
+	/**
+	 * Gets the information of a file from the last update
+	 * 
+	 * @param name The name of the file
+	 * @return Information of the file or null if there is no such file
+	 */
+	public synchronized FileInfo getFileInfo(String name) {
+		return fileTable.get(name);
+	}
+
+	/**
+	 * Gets the files under a directory from the last update
+	 * 
+	 * @param directory The name of the directory
+	 * @return The files in the directory and its subdirectories
+	 */
+	public synchronized ArrayList<FileInfo> getFilesUnder(String directory) {
+		return fileTable.getUnder(directory);
+	}
+
+	/**
+	 * Gets the files that have the given content
+	 * 
+	 * @param hash Hash of the content
+	 * @return The files, the array is empty if there are none
+	 */
+	public synchronized FileInfo[] getFilesWithContent(long hash) {
+		return fileTable.getByHash(hash);
+	}
+
+	/**
+	 * Copies a file of the folder to a new name. The copy is hashed again before
+	 * it replaces the target, since the source may have changed since it was
+	 * indexed.
+	 * 
+	 * @param source Name of the file that has the content
+	 * @param target Information of the file that will be created
+	 * @return Whether the target was created with the expected content
+	 */
+	public boolean copyFile(String source, FileInfo target) {
+		String path = getFilePath(target.getName());
+		File tmp = new File(path + ".tmp");
+		try {
+			tmp.getParentFile().mkdirs();
+			Files.copy(new File(getFilePath(source)).toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			if (FileHasher.hash(tmp) != target.getHash()) {
+				tmp.delete();
+				return false;
+			}
+			Files.move(tmp.toPath(), new File(path).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			tmp.delete();
+			return false;
+		}
+		registerHash(target.getHash(), path);
+		return true;
+	}
+
+	/**
+	 * Gets the index of the chunks of the files in the folder
+	 * 
+	 * @return The chunk store of the folder
+	 */
+	public ChunkStore getChunkStore() {
+		return chunkStore;
+	}
+
+	/**
+	 * Gets the hash tree of the folder, it follows every change of the list of
+	 * files
+	 * 
+	 * @return The hash tree of the folder
+	 */
+	public MerkleTree getTree() {
+		return tree;
+	}
+
+	/**
+	 * Gets the journal of the changes of the folder
+	 * 
+	 * @return The change journal of the folder
+	 */
+	public ChangeJournal getJournal() {
+		return journal;
+	}
+
+	/**
+	 * Gets the position of this folder in the journal of the master
+	 * 
+	 * @return The sync state of the folder
+	 */
+	public SyncState getSyncState() {
+		return syncState;
+	}
+
+	public Checksum getChecksum() {
+		return FileHasher.newChecksum();
+	}
+
+	public synchronized void registerHash(long hash, String path) {
+		File file = new File(path);
+		String name = getName(file);
+		calculatedHashes.put(name, file.lastModified(), file.length(), hash);
+		putEntry(new FileInfo(name, file.length(), hash));
+		listChanged = true;
+		recordChanges();
+	}
+
+	/**
+	 * Adds many received files at once, so that their changes are recorded
+	 * together
+	 * 
+	 * @param files The information of the files that were written into the folder
+	 */
+	public synchronized void registerFiles(List<FileInfo> files) {
+		for (FileInfo fI : files) {
+			File file = new File(getFilePath(fI.getName()));
+			calculatedHashes.put(fI.getName(), file.lastModified(), fI.getLength(), fI.getHash());
+			putEntry(fI);
+		}
+		listChanged = true;
+		recordChanges();
+	}
+
+	private void putEntry(FileInfo fI) {
+		changed(fI.getName(), fileTable.put(fI));
+		tree.put(fI);
+	}
+
+	/**
+	 * Remembers how an entry was before its first change since the last time the
+	 * changes were recorded
+	 * 
+	 * @param name Name of the entry
+	 * @param old  The entry before the change, null if there was none
+	 */
+	private void changed(String name, FileInfo old) {
+		if (!changedEntries.containsKey(name))
+			changedEntries.put(name, old);
+	}
+
+	/**
+	 * Appends the changes since the last call to the journal
+	 */
+	private void recordChanges() {
+		if (changedEntries.isEmpty())
+			return;
+		for (ChangeJournal.Change change : DiffEngine.diff(changedEntries, fileTable))
+			journal.append(change.getType(), change.getName(), change.getOldName(), change.getLength(),
+					change.getHash());
+		journal.flush();
+		changedEntries.clear();
+	}
+
+	private long calcXXHash(File file) throws IOException {
+		String name = getName(file);
+		long modified = file.lastModified();
+		long length = file.length();
+		Long cached = calculatedHashes.get(name, modified, length);
+		if (cached != null) {
+			Metrics.hashCacheHits.increment();
+			return cached;
+		}
+		Metrics.hashCacheMisses.increment();
+		long start = System.nanoTime();
+		long result = FileHasher.hash(file);
+		Metrics.hashNanos.add(System.nanoTime() - start);
+		Metrics.hashedBytes.add(length);
+		calculatedHashes.put(name, modified, length, result);
+		return result;
+	}
+
+	/**
+	 * Gets the name of the file relative to the folder
+	 * 
+	 * @param file A file in the folder
+	 * @return The name that is used for the file on both sides
+	 */
+	private String getName(File file) {
+		return file.getAbsolutePath().substring(folder.getAbsolutePath().length() + 1);
+	}
+
+	/**
+	 * Hashes a range of the entries of a directory. Large ranges are split in
+	 * half and every subdirectory is scanned by its own task, so that the pool
+	 * walks the tree and hashes the files concurrently.
+	 */
+	private class ScanTask extends RecursiveTask<ArrayList<FileInfo>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private File[] files;
+		private int from;
+		private int to;
+
+		private ScanTask(File[] files, int from, int to) {
+			this.files = files;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected ArrayList<FileInfo> compute() {
+			ArrayList<FileInfo> tmp = new ArrayList<>();
+			if (to - from > SCAN_BATCH) {
+				int middle = (from + to) >>> 1;
+				ScanTask left = new ScanTask(files, from, middle);
+				left.fork();
+				tmp.addAll(new ScanTask(files, middle, to).compute());
+				tmp.addAll(left.join());
+				return tmp;
+			}
+			ArrayList<ScanTask> subfolders = new ArrayList<>();
+			for (int i = from; i < to; i++) {
+				File file = files[i];
+				if (file.isFile()) {
+					try {
+						long hash = calcXXHash(file);
+						tmp.add(new FileInfo(getName(file), file.length(), hash));
+					} catch (IOException e) {
+						continue;
+					}
+				} else {
+					File[] children = file.listFiles(fnf);
+					if (children != null) {
+						ScanTask task = new ScanTask(children, 0, children.length);
+						task.fork();
+						subfolders.add(task);
+					}
+				}
+			}
+			for (ScanTask task : subfolders)
+				tmp.addAll(task.join());
+			return tmp;
+		}
+
+	}
+
+}
@@ -1,42 +1,59 @@
-package main;
-
-import java.io.Closeable;
-import java.io.IOException;
-
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-
-import socket.Client;
-import socket.Connection;
-
-public class Follower implements Runnable, Closeable {
-
-	private ScheduledExecutorService ses;
-	
-	private Client client;
-	private FolderOperations fo;
-
-	public Follower(FolderOperations fo, String IP, int port, int time) {
-		client = new Client(IP, port);
-		this.fo = fo;
-		ses = Executors.newSingleThreadScheduledExecutor();
-		ses.scheduleWithFixedDelay(this, 0, time, TimeUnit.SECONDS);
-	}
-
-	public void run() {
-		try {
-			Connection c = client.connect();
-			Controller.getInstance().publishEvent("Connected to the master.");
-			SyncProtocol sync = new SyncProtocol(c,fo, false);
-			sync.run();
-		} catch (IOException e) {
-			Controller.getInstance().publishEvent("Something happened when connecting master.");
-		}
-	}
-	
-	public void close() throws IOException {
-		ses.shutdown();
-	}
-
-}
+package main;
+
+import java.io.IOException;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import socket.Client;
+import socket.Connection;
+
+/**
+ * Synchronizes the folder with the master every given number of seconds. If
+ * the master keeps the session open, the follower stays connected and
+ * synchronizes when either folder changes, and the interval only applies to
+ * connecting again after the session was lost and to folders that can't be
+ * watched.
+ */
+public class Follower implements Synchronizer {
+
+	private ScheduledExecutorService ses;
+	
+	private Client client;
+	private FolderOperations fo;
+	private int time;
+	private volatile SyncProtocol sync;
+
+	public Follower(FolderOperations fo, String IP, int port, int time) {
+		client = new Client(IP, port);
+		this.fo = fo;
+		this.time = time;
+		ses = Executors.newSingleThreadScheduledExecutor();
+		ses.scheduleWithFixedDelay(this, 0, time, TimeUnit.SECONDS);
+	}
+
+	public void run() {
+		try {
+			Connection c = client.connect();
+			Controller.getInstance().publishEvent("Connected to the master.");
+			sync = new SyncProtocol(c,fo, false);
+			sync.setPollInterval(time * 1000L);
+			sync.run();
+		} catch (IOException e) {
+			Controller.getInstance().publishEvent("Something happened when connecting master.");
+		}
+	}
+	
+	public void awaitTermination() throws InterruptedException {
+		ses.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+	}
+
+	public void close() throws IOException {
+		ses.shutdown();
+		SyncProtocol running = sync;
+		if (running != null)
+			running.stop();
+	}
+
+}
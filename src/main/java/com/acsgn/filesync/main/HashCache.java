@@ -0,0 +1,290 @@
+package main;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent cache of the hashes of the files in the folder. Every change is
+ * appended to a log file inside the folder as a record protected by its own
+ * CRC, so a write torn by a crash only loses that record. The log is read on
+ * the first lookup and rewritten into a fresh file once most of its records are
+ * stale.
+ */
+public class HashCache implements Closeable {
+
+	public static final String FILE_NAME = ".filesync.cache";
+	private static final long REMOVED = -1;
+	private static final int MIN_COMPACT_RECORDS = 1024;
+
+	private File file;
+	private Map<String, Entry> entries;
+	private DataOutputStream log;
+	private int records;
+	private volatile boolean loaded;
+
+	/**
+	 * Creates a hash cache that is stored in the given folder
+	 *
+	 * @param folder The folder that is synchronized
+	 */
+	public HashCache(File folder) {
+		file = new File(folder, FILE_NAME);
+		entries = new ConcurrentHashMap<String, Entry>();
+	}
+
+	/**
+	 * Gets the hash of the file if it did not change since it was calculated
+	 *
+	 * @param name     Name of the file relative to the folder
+	 * @param modified Last modification time of the file
+	 * @param length   Length of the file
+	 * @return The hash of the file or null if it has to be calculated again
+	 */
+	public Long get(String name, long modified, long length) {
+		if (!loaded)
+			load();
+		Entry entry = entries.get(name);
+		if (entry != null && entry.modified == modified && entry.length == length)
+			return entry.hash;
+		return null;
+	}
+
+	/**
+	 * Stores the hash of the file
+	 *
+	 * @param name     Name of the file relative to the folder
+	 * @param modified Last modification time of the file
+	 * @param length   Length of the file
+	 * @param hash     The hash of the content of the file
+	 */
+	public synchronized void put(String name, long modified, long length, long hash) {
+		load();
+		Entry entry = new Entry(modified, length, hash);
+		entries.put(name, entry);
+		append(name, entry);
+	}
+
+	/**
+	 * Moves the hash of a renamed file to its new name
+	 *
+	 * @param oldName The old name of the file
+	 * @param newName The new name of the file
+	 */
+	public synchronized void rename(String oldName, String newName) {
+		load();
+		Entry entry = entries.remove(oldName);
+		if (entry != null) {
+			append(oldName, new Entry(0, REMOVED, 0));
+			entries.put(newName, entry);
+			append(newName, entry);
+		}
+	}
+
+	/**
+	 * Forgets the hash of a file
+	 *
+	 * @param name Name of the file relative to the folder
+	 */
+	public synchronized void remove(String name) {
+		load();
+		if (entries.remove(name) != null)
+			append(name, new Entry(0, REMOVED, 0));
+	}
+
+	/**
+	 * Forgets the hashes of all the files that are not in the given collection
+	 *
+	 * @param names Names of the files that are still in the folder
+	 */
+	public synchronized void retainAll(Collection<String> names) {
+		load();
+		for (String name : entries.keySet()) {
+			if (!names.contains(name))
+				remove(name);
+		}
+		if (records > MIN_COMPACT_RECORDS && records > 2 * entries.size())
+			compact();
+	}
+
+	/**
+	 * Gets the files whose hashes are cached, which are the files that were in
+	 * the folder when it was last updated
+	 *
+	 * @return Informations of the cached files
+	 */
+	public synchronized ArrayList<FileInfo> getFiles() {
+		load();
+		ArrayList<FileInfo> files = new ArrayList<>(entries.size());
+		for (Map.Entry<String, Entry> e : entries.entrySet())
+			files.add(new FileInfo(e.getKey(), e.getValue().length, e.getValue().hash));
+		return files;
+	}
+
+	/**
+	 * Writes the buffered records to the disk
+	 */
+	public synchronized void flush() {
+		try {
+			if (log != null)
+				log.flush();
+		} catch (IOException e) {
+			System.err.println("Couldn't write hash cache");
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		flush();
+		try {
+			if (log != null)
+				log.close();
+		} catch (IOException e) {
+			System.err.println("Couldn't close hash cache");
+		}
+		log = null;
+	}
+
+	private synchronized void load() {
+		if (loaded)
+			return;
+		long valid = 0;
+		if (file.exists()) {
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+				CRC32 crc = new CRC32();
+				while (true) {
+					int nameLength = in.readInt();
+					if (nameLength < 0 || nameLength > 65536)
+						break;
+					byte[] name = new byte[nameLength];
+					in.readFully(name);
+					Entry entry = new Entry(in.readLong(), in.readLong(), in.readLong());
+					int checksum = in.readInt();
+					crc.reset();
+					crc.update(encode(name, entry));
+					if ((int) crc.getValue() != checksum)
+						break;
+					String key = new String(name, StandardCharsets.UTF_8);
+					if (entry.length == REMOVED)
+						entries.remove(key);
+					else
+						entries.put(key, entry);
+					valid += 32 + nameLength;
+					records++;
+				}
+			} catch (EOFException e) {
+				// The last record was torn, everything before it is valid
+			} catch (IOException e) {
+				System.err.println("Couldn't read hash cache");
+			}
+		}
+		try {
+			if (file.exists() && file.length() != valid) {
+				try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+					raf.setLength(valid);
+				}
+			}
+			log = openLog();
+		} catch (IOException e) {
+			System.err.println("Couldn't open hash cache, hashes will not be persisted");
+		}
+		loaded = true;
+	}
+
+	private void compact() {
+		File compacted = new File(file.getPath() + ".new");
+		try {
+			close();
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new FileOutputStream(compacted)))) {
+				for (Map.Entry<String, Entry> e : entries.entrySet())
+					write(out, e.getKey(), e.getValue());
+			}
+			Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			records = entries.size();
+			log = openLog();
+		} catch (IOException e) {
+			System.err.println("Couldn't compact hash cache");
+			compacted.delete();
+		}
+		if (log == null) {
+			// Keep appending to the old log, its stale records are superseded on load
+			try {
+				log = openLog();
+			} catch (IOException e) {
+				System.err.println("Couldn't reopen hash cache, hashes will not be persisted");
+			}
+		}
+	}
+
+	private DataOutputStream openLog() throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+	}
+
+	private void append(String name, Entry entry) {
+		if (log == null)
+			return;
+		try {
+			write(log, name, entry);
+			records++;
+		} catch (IOException e) {
+			System.err.println("Couldn't write hash cache");
+		}
+	}
+
+	private static void write(DataOutputStream out, String name, Entry entry) throws IOException {
+		byte[] record = encode(name.getBytes(StandardCharsets.UTF_8), entry);
+		CRC32 crc = new CRC32();
+		crc.update(record);
+		out.write(record);
+		out.writeInt((int) crc.getValue());
+	}
+
+	private static byte[] encode(byte[] name, Entry entry) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(28 + name.length);
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeInt(name.length);
+			out.write(name);
+			out.writeLong(entry.modified);
+			out.writeLong(entry.length);
+			out.writeLong(entry.hash);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static class Entry {
+
+		private long modified;
+		private long length;
+		private long hash;
+
+		private Entry(long modified, long length, long hash) {
+			this.modified = modified;
+			this.length = length;
+			this.hash = hash;
+		}
+
+	}
+
+}
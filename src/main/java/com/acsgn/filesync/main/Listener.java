@@ -1,5 +1,5 @@
-package main;
-
-public interface Listener {
-	public void onEvent(String message);
-}
+package main;
+
+public interface Listener {
+	public void onEvent(String message);
+}
@@ -1,51 +1,173 @@
-package main;
-
-import java.io.Closeable;
-import java.io.IOException;
-
-import java.net.SocketTimeoutException;
-
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-
-import socket.Connection;
-import socket.Server;
-
-public class Master implements Runnable, Closeable {
-
-	private volatile boolean close = false;
-	private ExecutorService cTP;
-	private Server server;
-	private FolderOperations fo;
-
-	public Master(FolderOperations fo, int port) {
-		server = new Server(port);
-		this.fo = fo;
-		cTP = Executors.newCachedThreadPool();
-	}
-
-	@Override
-	public void run() {
-		while (true) {
-			try {
-				Connection c = server.connect();
-				SyncProtocol sync = new SyncProtocol(c ,fo, true);
-				Controller.getInstance().publishEvent("Connected to a follower.");
-				cTP.execute(sync);
-			} catch (SocketTimeoutException e) {
-				if (close) {
-					server.close();
-					break;
-				}
-			} catch (IOException e) {
-				Controller.getInstance().publishEvent("Something happened on master.");
-			}
-		}
-	}
-
-	@Override
-	public void close() throws IOException {
-		close = true;
-	}
-
-}
+package main;
+
+import java.io.IOException;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import socket.Connection;
+import socket.IdleSelector;
+import socket.Message;
+import socket.MessageType;
+import socket.Server;
+
+/**
+ * Serves the followers. Connections are accepted on a selector, and a session
+ * is admitted only while fewer than {@link Settings#MAX_SESSIONS} sessions run
+ * and fewer than {@link Settings#MAX_SESSIONS_PER_PEER} of them are with the
+ * same address, so the number of threads stays bounded however many followers
+ * connect. Followers that are not admitted are told that the master is busy.
+ * Data streams belong to a session that was already admitted and are joined
+ * to it right away. Sessions that stay open between synchronizations wait on
+ * an {@link IdleSelector} while they are idle, they give up their thread and
+ * don't count against {@link Settings#MAX_SESSIONS} until the follower starts
+ * the next synchronization. They are asked to end when the master is closed.
+ */
+public class Master implements Synchronizer {
+
+	private ThreadPoolExecutor cTP;
+	private Server server;
+	private FolderOperations fo;
+	private HashMap<String, Integer> peers = new HashMap<>();
+	private HashSet<SyncProtocol> running = new HashSet<>();
+	private IdleSelector idle = new IdleSelector();
+	private int sessions;
+
+	public Master(FolderOperations fo, int port) {
+		server = new Server(port);
+		this.fo = fo;
+		cTP = new ThreadPoolExecutor(Settings.MAX_SESSIONS, Settings.MAX_SESSIONS, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>());
+		cTP.allowCoreThreadTimeOut(true);
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				Connection c = server.connect();
+				if (c == null)
+					break;
+				if (c.getGreeting().getType() == MessageType.JOIN) {
+					new SyncProtocol(c, fo, true).run();
+					continue;
+				}
+				String peer = c.getRemoteAddress();
+				if (!admit(peer)) {
+					Metrics.rejectedSessions.increment();
+					c.createCommandSocket().send(new Message(MessageType.BUSY));
+					c.close();
+					continue;
+				}
+				SyncProtocol sync = new SyncProtocol(c, fo, true);
+				sync.setSuspendable(c.isSelectable());
+				track(sync, true);
+				cTP.execute(() -> serve(sync, c, peer));
+			} catch (IOException e) {
+				Controller.getInstance().publishEvent("Something happened on master.");
+			}
+		}
+		idle.close();
+		cTP.shutdown();
+	}
+
+	/**
+	 * Runs a session until it ends or becomes idle, an idle session waits on the
+	 * selector until it has something to do
+	 */
+	private void serve(SyncProtocol sync, Connection c, String peer) {
+		try {
+			sync.run();
+		} finally {
+			if (!sync.isSuspended()) {
+				track(sync, false);
+				release(peer);
+			} else {
+				suspend();
+				if (!idle.park(c, sync::isDue, () -> resume(sync, c, peer))) {
+					sync.stop();
+					resume(sync, c, peer);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs an idle session again, it counts as running although the limit may
+	 * be reached since it was admitted before
+	 */
+	private void resume(SyncProtocol sync, Connection c, String peer) {
+		synchronized (this) {
+			sessions++;
+			Metrics.idleSessions.decrement();
+			Metrics.activeSessions.increment();
+		}
+		try {
+			cTP.execute(() -> serve(sync, c, peer));
+		} catch (RejectedExecutionException e) {
+			c.close();
+			track(sync, false);
+			release(peer);
+		}
+	}
+
+	/**
+	 * Takes a session for a follower if both limits allow it
+	 *
+	 * @param peer Address of the follower
+	 * @return Whether the session can run
+	 */
+	private synchronized boolean admit(String peer) {
+		int running = peers.getOrDefault(peer, 0);
+		if (sessions >= Settings.MAX_SESSIONS || running >= Settings.MAX_SESSIONS_PER_PEER)
+			return false;
+		peers.put(peer, running + 1);
+		sessions++;
+		Metrics.activeSessions.increment();
+		return true;
+	}
+
+	private synchronized void release(String peer) {
+		int running = peers.get(peer) - 1;
+		if (running == 0)
+			peers.remove(peer);
+		else
+			peers.put(peer, running);
+		sessions--;
+		Metrics.activeSessions.decrement();
+	}
+
+	/**
+	 * Stops counting a session against the limit while it is idle
+	 */
+	private synchronized void suspend() {
+		sessions--;
+		Metrics.activeSessions.decrement();
+		Metrics.idleSessions.increment();
+	}
+
+	private synchronized void track(SyncProtocol sync, boolean started) {
+		if (started)
+			running.add(sync);
+		else
+			running.remove(sync);
+	}
+
+	@Override
+	public void awaitTermination() throws InterruptedException {
+		cTP.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+	}
+
+	public void close() throws IOException {
+		server.close();
+		synchronized (this) {
+			for (SyncProtocol sync : running)
+				sync.stop();
+		}
+	}
+
+}
@@ -0,0 +1,200 @@
+package main;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.zip.Checksum;
+
+/**
+ * Hash tree over the structure of the folder. The hash of a directory covers
+ * the names and hashes of its files and subdirectories, so two folders with the
+ * same root hash have the same files and the directories whose hashes differ
+ * lead to the files that differ. Hashes are calculated again lazily, only for
+ * the directories that changed since they were last asked for.
+ */
+public class MerkleTree {
+
+	private Node root = new Node();
+
+	/**
+	 * Adds a file or replaces the file with the same name
+	 *
+	 * @param fI Information of the file
+	 */
+	public synchronized void put(FileInfo fI) {
+		String[] path = split(fI.getName());
+		Node node = root;
+		node.dirty = true;
+		for (int i = 0; i < path.length - 1; i++) {
+			Node child = node.directories.get(path[i]);
+			if (child == null) {
+				child = new Node();
+				node.directories.put(path[i], child);
+			}
+			node = child;
+			node.dirty = true;
+		}
+		node.files.put(path[path.length - 1], fI);
+	}
+
+	/**
+	 * Removes a file, directories that become empty are removed too
+	 *
+	 * @param name Name of the file relative to the folder
+	 */
+	public synchronized void remove(String name) {
+		remove(root, split(name), 0);
+	}
+
+	private boolean remove(Node node, String[] path, int depth) {
+		boolean removed;
+		if (depth == path.length - 1)
+			removed = node.files.remove(path[depth]) != null;
+		else {
+			Node child = node.directories.get(path[depth]);
+			removed = child != null && remove(child, path, depth + 1);
+			if (removed && child.directories.isEmpty() && child.files.isEmpty())
+				node.directories.remove(path[depth]);
+		}
+		if (removed)
+			node.dirty = true;
+		return removed;
+	}
+
+	/**
+	 * Removes every file
+	 */
+	public synchronized void clear() {
+		root = new Node();
+	}
+
+	/**
+	 * Gets the hash of the whole folder
+	 *
+	 * @return Hash of the root directory
+	 */
+	public synchronized long getRootHash() {
+		return hash(root);
+	}
+
+	/**
+	 * Gets the hash of a directory
+	 *
+	 * @param path Path of the directory relative to the folder, empty for the root
+	 * @return Hash of the directory or null if there is no such directory
+	 */
+	public synchronized Long getDirectoryHash(String path) {
+		Node node = root;
+		if (!path.isEmpty()) {
+			for (String name : split(path)) {
+				node = node.directories.get(name);
+				if (node == null)
+					return null;
+			}
+		}
+		return hash(node);
+	}
+
+	/**
+	 * Lists a directory with the hashes of its subdirectories
+	 *
+	 * @param path Path of the directory relative to the folder, empty for the root
+	 * @return The listing, which is empty if there is no such directory
+	 */
+	public synchronized Listing list(String path) {
+		Node node = root;
+		if (!path.isEmpty()) {
+			for (String name : split(path)) {
+				node = node.directories.get(name);
+				if (node == null)
+					return new Listing(path, new TreeMap<String, Long>(), new ArrayList<FileInfo>());
+			}
+		}
+		TreeMap<String, Long> directories = new TreeMap<>();
+		for (Map.Entry<String, Node> entry : node.directories.entrySet())
+			directories.put(entry.getKey(), hash(entry.getValue()));
+		return new Listing(path, directories, new ArrayList<>(node.files.values()));
+	}
+
+	/**
+	 * Gets the path of a subdirectory
+	 *
+	 * @param path Path of the directory, empty for the root
+	 * @param name Name of the subdirectory
+	 * @return Path of the subdirectory relative to the folder
+	 */
+	public static String child(String path, String name) {
+		return path.isEmpty() ? name : path + File.separator + name;
+	}
+
+	private long hash(Node node) {
+		if (!node.dirty)
+			return node.hash;
+		Checksum c = FileHasher.newChecksum();
+		for (Map.Entry<String, Node> entry : node.directories.entrySet())
+			update(c, 'D', entry.getKey(), hash(entry.getValue()));
+		for (Map.Entry<String, FileInfo> entry : node.files.entrySet())
+			update(c, 'F', entry.getKey(), entry.getValue().getHash());
+		node.hash = c.getValue();
+		node.dirty = false;
+		return node.hash;
+	}
+
+	private static void update(Checksum c, char type, String name, long hash) {
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		c.update(type);
+		c.update(bytes, 0, bytes.length);
+		c.update(0);
+		for (int i = 56; i >= 0; i -= 8)
+			c.update((int) (hash >>> i));
+	}
+
+	private static String[] split(String name) {
+		return name.split(Pattern.quote(File.separator));
+	}
+
+	/**
+	 * Subdirectories and files of a directory
+	 */
+	public static class Listing {
+
+		private String path;
+		private TreeMap<String, Long> directories;
+		private ArrayList<FileInfo> files;
+
+		public Listing(String path, TreeMap<String, Long> directories, ArrayList<FileInfo> files) {
+			this.path = path;
+			this.directories = directories;
+			this.files = files;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		/**
+		 * Gets the names of the subdirectories with their hashes
+		 */
+		public TreeMap<String, Long> getDirectories() {
+			return directories;
+		}
+
+		public ArrayList<FileInfo> getFiles() {
+			return files;
+		}
+
+	}
+
+	private static class Node {
+
+		private TreeMap<String, Node> directories = new TreeMap<>();
+		private TreeMap<String, FileInfo> files = new TreeMap<>();
+		private long hash;
+		private boolean dirty = true;
+
+	}
+
+}
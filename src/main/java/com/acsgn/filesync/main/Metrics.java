@@ -0,0 +1,320 @@
+package main;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Collects measurements of scanning, hashing and transferring files. Counters
+ * are {@link LongAdder}s and histograms have one per power of two, so the scan
+ * workers and the sessions record without contending with each other.
+ * <p>
+ * The metrics are registered as an MXBean, see {@link MetricsMXBean}. Every
+ * {@link Settings#METRICS_INTERVAL} seconds the transfer rates are updated and,
+ * if {@link Settings#METRICS_FILE} is set, all the metrics are appended to that
+ * file as one line of JSON.
+ */
+public class Metrics implements MetricsMXBean {
+
+	public static final LongAdder activeSessions = new LongAdder();
+	public static final LongAdder idleSessions = new LongAdder();
+	public static final LongAdder rejectedSessions = new LongAdder();
+	public static final Histogram sessionMillis = new Histogram();
+	public static final Histogram scanMillis = new Histogram();
+	public static final LongAdder hashedBytes = new LongAdder();
+	public static final LongAdder hashNanos = new LongAdder();
+	public static final LongAdder hashCacheHits = new LongAdder();
+	public static final LongAdder hashCacheMisses = new LongAdder();
+	public static final Histogram fileLatencyMillis = new Histogram();
+	public static final LongAdder filesReceived = new LongAdder();
+	public static final LongAdder bytesSent = new LongAdder();
+	public static final LongAdder bytesReceived = new LongAdder();
+	public static final LongAdder retries = new LongAdder();
+
+	private static volatile long manifestFiles;
+	private static volatile double sendRate;
+	private static volatile double receiveRate;
+	private static long lastSample = System.nanoTime();
+	private static long lastSent;
+	private static long lastReceived;
+
+	static {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new Metrics(),
+					new ObjectName("com.acsgn.filesync:type=Metrics"));
+		} catch (JMException e) {
+			System.err.println("Couldn't register the metrics");
+		}
+		ScheduledExecutorService ses = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "Metrics");
+			thread.setDaemon(true);
+			return thread;
+		});
+		ses.scheduleAtFixedRate(Metrics::sample, Settings.METRICS_INTERVAL, Settings.METRICS_INTERVAL,
+				TimeUnit.SECONDS);
+	}
+
+	private Metrics() {
+	}
+
+	/**
+	 * Sets the number of files in the list of files after an update
+	 *
+	 * @param files Number of files
+	 */
+	public static void setManifestFiles(long files) {
+		manifestFiles = files;
+	}
+
+	/**
+	 * Updates the rates and writes the metrics to the file of the settings
+	 */
+	private static synchronized void sample() {
+		long now = System.nanoTime();
+		long sent = bytesSent.sum();
+		long received = bytesReceived.sum();
+		double seconds = (now - lastSample) / 1e9;
+		sendRate = (sent - lastSent) / seconds;
+		receiveRate = (received - lastReceived) / seconds;
+		lastSample = now;
+		lastSent = sent;
+		lastReceived = received;
+		if (Settings.METRICS_FILE.isEmpty())
+			return;
+		try (FileWriter writer = new FileWriter(Settings.METRICS_FILE, true)) {
+			writer.write(toJson() + System.lineSeparator());
+		} catch (IOException e) {
+			System.err.println("Couldn't write the metrics to " + Settings.METRICS_FILE);
+		}
+	}
+
+	/**
+	 * Gets all the metrics as a JSON object
+	 *
+	 * @return The object in one line
+	 */
+	public static String toJson() {
+		Metrics m = new Metrics();
+		return new StringBuilder("{\"time\":").append(System.currentTimeMillis())
+				.append(",\"activeSessions\":").append(m.getActiveSessions())
+				.append(",\"idleSessions\":").append(m.getIdleSessions())
+				.append(",\"rejectedSessions\":").append(m.getRejectedSessions())
+				.append(",\"sessionMillis\":").append(m.getSessionMillis().toJson())
+				.append(",\"scanMillis\":").append(m.getScanMillis().toJson())
+				.append(",\"manifestFiles\":").append(m.getManifestFiles())
+				.append(",\"hashedBytes\":").append(m.getHashedBytes())
+				.append(",\"hashBytesPerSecond\":").append(m.getHashBytesPerSecond())
+				.append(",\"hashCacheHitRatio\":").append(m.getHashCacheHitRatio())
+				.append(",\"fileLatencyMillis\":").append(m.getFileLatencyMillis().toJson())
+				.append(",\"filesReceived\":").append(m.getFilesReceived())
+				.append(",\"bytesSent\":").append(m.getBytesSent())
+				.append(",\"bytesReceived\":").append(m.getBytesReceived())
+				.append(",\"sendBytesPerSecond\":").append(m.getSendBytesPerSecond())
+				.append(",\"receiveBytesPerSecond\":").append(m.getReceiveBytesPerSecond())
+				.append(",\"retries\":").append(m.getRetries()).append('}').toString();
+	}
+
+	@Override
+	public long getActiveSessions() {
+		return activeSessions.sum();
+	}
+
+	@Override
+	public long getIdleSessions() {
+		return idleSessions.sum();
+	}
+
+	@Override
+	public long getRejectedSessions() {
+		return rejectedSessions.sum();
+	}
+
+	@Override
+	public Summary getSessionMillis() {
+		return sessionMillis.summarize();
+	}
+
+	@Override
+	public Summary getScanMillis() {
+		return scanMillis.summarize();
+	}
+
+	@Override
+	public long getManifestFiles() {
+		return manifestFiles;
+	}
+
+	@Override
+	public long getHashedBytes() {
+		return hashedBytes.sum();
+	}
+
+	@Override
+	public double getHashBytesPerSecond() {
+		long nanos = hashNanos.sum();
+		return nanos == 0 ? 0 : hashedBytes.sum() * 1e9 / nanos;
+	}
+
+	@Override
+	public double getHashCacheHitRatio() {
+		long hits = hashCacheHits.sum();
+		long total = hits + hashCacheMisses.sum();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	@Override
+	public Summary getFileLatencyMillis() {
+		return fileLatencyMillis.summarize();
+	}
+
+	@Override
+	public long getFilesReceived() {
+		return filesReceived.sum();
+	}
+
+	@Override
+	public long getBytesSent() {
+		return bytesSent.sum();
+	}
+
+	@Override
+	public long getBytesReceived() {
+		return bytesReceived.sum();
+	}
+
+	@Override
+	public double getSendBytesPerSecond() {
+		return sendRate;
+	}
+
+	@Override
+	public double getReceiveBytesPerSecond() {
+		return receiveRate;
+	}
+
+	@Override
+	public long getRetries() {
+		return retries.sum();
+	}
+
+	/**
+	 * Distribution of non-negative values in buckets of powers of two, the
+	 * percentiles are the upper bounds of their buckets
+	 */
+	public static class Histogram {
+
+		private final LongAdder[] buckets = new LongAdder[65];
+		private final LongAdder count = new LongAdder();
+		private final LongAdder sum = new LongAdder();
+		private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+		public Histogram() {
+			for (int i = 0; i < buckets.length; i++)
+				buckets[i] = new LongAdder();
+		}
+
+		/**
+		 * Records a value, negative values count as 0
+		 *
+		 * @param value The value
+		 */
+		public void record(long value) {
+			value = Math.max(0, value);
+			buckets[64 - Long.numberOfLeadingZeros(value)].increment();
+			count.increment();
+			sum.add(value);
+			max.accumulate(value);
+		}
+
+		/**
+		 * Summarizes the values recorded so far
+		 *
+		 * @return The count, the mean, some percentiles and the maximum
+		 */
+		public Summary summarize() {
+			long[] counts = new long[buckets.length];
+			long total = 0;
+			for (int i = 0; i < counts.length; i++) {
+				counts[i] = buckets[i].sum();
+				total += counts[i];
+			}
+			long largest = max.get();
+			return new Summary(total, total == 0 ? 0 : (double) sum.sum() / total,
+					percentile(counts, total, 0.5, largest), percentile(counts, total, 0.9, largest),
+					percentile(counts, total, 0.99, largest), largest);
+		}
+
+		private static long percentile(long[] counts, long total, double q, long largest) {
+			long rank = (long) Math.ceil(q * total);
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank && seen > 0)
+					return i == 0 ? 0 : Math.min(largest, i == 64 ? Long.MAX_VALUE : (1L << i) - 1);
+			}
+			return 0;
+		}
+
+	}
+
+	/**
+	 * Summary of a histogram, it is shown as composite data over JMX
+	 */
+	public static class Summary {
+
+		private final long count;
+		private final double mean;
+		private final long p50;
+		private final long p90;
+		private final long p99;
+		private final long max;
+
+		private Summary(long count, double mean, long p50, long p90, long p99, long max) {
+			this.count = count;
+			this.mean = mean;
+			this.p50 = p50;
+			this.p90 = p90;
+			this.p99 = p99;
+			this.max = max;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public double getMean() {
+			return mean;
+		}
+
+		public long getP50() {
+			return p50;
+		}
+
+		public long getP90() {
+			return p90;
+		}
+
+		public long getP99() {
+			return p99;
+		}
+
+		public long getMax() {
+			return max;
+		}
+
+		private String toJson() {
+			return "{\"count\":" + count + ",\"mean\":" + mean + ",\"p50\":" + p50 + ",\"p90\":" + p90 + ",\"p99\":"
+					+ p99 + ",\"max\":" + max + "}";
+		}
+
+	}
+
+}
@@ -0,0 +1,97 @@
+package main;
+
+import main.Metrics.Summary;
+
+/**
+ * Management interface of {@link Metrics}, registered as
+ * {@code com.acsgn.filesync:type=Metrics}
+ */
+public interface MetricsMXBean {
+
+	/**
+	 * Gets the number of sessions the master runs now
+	 */
+	long getActiveSessions();
+
+	/**
+	 * Gets the number of persistent sessions that wait for changes without a
+	 * thread
+	 */
+	long getIdleSessions();
+
+	/**
+	 * Gets the number of followers the master told that it is busy
+	 */
+	long getRejectedSessions();
+
+	/**
+	 * Gets the durations of the finished sessions in milliseconds
+	 */
+	Summary getSessionMillis();
+
+	/**
+	 * Gets the durations of the updates of the list of files in milliseconds
+	 */
+	Summary getScanMillis();
+
+	/**
+	 * Gets the number of files in the last list of files
+	 */
+	long getManifestFiles();
+
+	/**
+	 * Gets the number of bytes of files that were hashed
+	 */
+	long getHashedBytes();
+
+	/**
+	 * Gets the bytes one scan thread hashes per second on average
+	 */
+	double getHashBytesPerSecond();
+
+	/**
+	 * Gets the share of the files whose hash was found in the hash cache
+	 */
+	double getHashCacheHitRatio();
+
+	/**
+	 * Gets the times from requesting a file until it was received in
+	 * milliseconds
+	 */
+	Summary getFileLatencyMillis();
+
+	/**
+	 * Gets the number of files that were received and passed the consistency
+	 * check
+	 */
+	long getFilesReceived();
+
+	/**
+	 * Gets the number of bytes of file content that were sent, as they went over
+	 * the connections
+	 */
+	long getBytesSent();
+
+	/**
+	 * Gets the number of bytes of file content that were received, as they came
+	 * over the connections
+	 */
+	long getBytesReceived();
+
+	/**
+	 * Gets the bytes of file content sent per second during the last interval
+	 */
+	double getSendBytesPerSecond();
+
+	/**
+	 * Gets the bytes of file content received per second during the last interval
+	 */
+	double getReceiveBytesPerSecond();
+
+	/**
+	 * Gets the number of files that were requested again after they failed the
+	 * consistency check
+	 */
+	long getRetries();
+
+}
@@ -0,0 +1,386 @@
+package main;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import socket.CommandSocket;
+import socket.Connection;
+import socket.FileSocket;
+import socket.Message;
+import socket.MessageType;
+import socket.RateLimiter;
+
+/**
+ * Receives files over the extra data streams of a session. Large files are
+ * split into ranges of {@link Settings#RANGE_SIZE} that are written into the
+ * temporary file concurrently, small files are spread over the streams, and
+ * every stream keeps a window of requests in flight. Every file is hashed once
+ * all of its ranges arrived and installed only if the hash matches.
+ * <p>
+ * The number of streams that are used is tuned while the files arrive: one
+ * more stream is taken as long as it raises the throughput by a tenth, and the
+ * best number is remembered for the next session with the same user.
+ */
+public class ParallelTransfer {
+
+	private static final long SAMPLE_MILLIS = 500;
+	private static final ConcurrentHashMap<String, Integer> tuned = new ConcurrentHashMap<>();
+	private static final ExecutorService pool = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "Stream");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private FolderOperations fo;
+	private ArrayList<Connection> streams;
+	private boolean compression;
+	private RateLimiter limiter;
+	private String peer;
+
+	private ConcurrentLinkedQueue<Range> queue;
+	private AtomicLong received;
+	private AtomicInteger failures;
+	private volatile int active;
+
+	/**
+	 * Creates a transfer over the given streams
+	 *
+	 * @param fo          The folder the files are received into
+	 * @param streams     The streams the other user serves
+	 * @param compression Whether file content is compressed on the streams
+	 * @param limiter     Limiter of the rate of the file content, or null
+	 * @param peer        Address of the other user, the tuned number of streams
+	 *                    is remembered for it
+	 */
+	public ParallelTransfer(FolderOperations fo, ArrayList<Connection> streams, boolean compression,
+			RateLimiter limiter, String peer) {
+		this.fo = fo;
+		this.streams = streams;
+		this.compression = compression;
+		this.limiter = limiter;
+		this.peer = peer;
+	}
+
+	/**
+	 * Serves the range requests of the other user on a stream until the stream
+	 * is closed
+	 *
+	 * @param fo          The folder the files are sent from
+	 * @param connection  The stream
+	 * @param compression Whether file content is compressed on the stream
+	 * @param limiter     Limiter of the rate of the file content, or null
+	 */
+	public static void serve(FolderOperations fo, Connection connection, boolean compression, RateLimiter limiter) {
+		pool.execute(() -> {
+			CommandSocket comSoc = connection.createCommandSocket();
+			FileSocket fiSoc = connection.createFileSocket();
+			fiSoc.setCompression(compression);
+			fiSoc.setRateLimiter(limiter);
+			Message request;
+			try {
+				while ((request = comSoc.receive()) != null && request.getType() == MessageType.RANGEGET) {
+					int id = request.getVarInt();
+					File file = new File(fo.getFilePath(request.getString()));
+					long position = request.getVarLong();
+					int length = request.getVarInt();
+					boolean found = file.isFile();
+					comSoc.send(new Message(MessageType.RANGE).putVarInt(id).putVarInt(found ? 1 : 0));
+					if (found)
+						fiSoc.sendRange(file.getPath(), position, length);
+				}
+			} catch (IllegalStateException e) {
+				System.err.println("Couldn't read a range request: " + e.getMessage());
+			}
+			connection.close();
+		});
+	}
+
+	/**
+	 * Receives the files over the streams. Files that were partly received before
+	 * are left to the connection of the protocol, which resumes them after the
+	 * part that arrived.
+	 *
+	 * @param files The information of the files on the other side
+	 * @return The files that couldn't be received, they have to be requested
+	 *         over the connection of the protocol
+	 */
+	public ArrayList<FileInfo> receive(ArrayList<FileInfo> files) {
+		queue = new ConcurrentLinkedQueue<>();
+		received = new AtomicLong();
+		failures = new AtomicInteger();
+		ArrayList<FileInfo> failed = new ArrayList<>();
+		ArrayList<Target> targets = new ArrayList<>();
+		for (FileInfo fI : files) {
+			if (FileSocket.hasPartial(fo.getFilePath(fI.getName()))) {
+				failed.add(fI);
+				continue;
+			}
+			Target target = new Target(fI);
+			targets.add(target);
+			long position = 0;
+			do {
+				int length = (int) Math.min(Settings.RANGE_SIZE, fI.getLength() - position);
+				queue.add(new Range(target, position, length));
+				target.remaining.incrementAndGet();
+				position += length;
+			} while (position < fI.getLength());
+		}
+		int max = streams.size();
+		active = Math.max(1, Math.min(max, tuned.getOrDefault(peer, 1)));
+		CountDownLatch done = new CountDownLatch(max);
+		for (int i = 0; i < max; i++) {
+			int index = i;
+			pool.execute(() -> {
+				try {
+					work(index);
+				} catch (IllegalStateException e) {
+					System.err.println("Couldn't read a range: " + e.getMessage());
+					streams.get(index).close();
+					failures.incrementAndGet();
+				} finally {
+					done.countDown();
+				}
+			});
+		}
+		tune(done, max);
+
+		for (Target target : targets) {
+			if (!target.installed) {
+				target.abort();
+				failed.add(target.fI);
+			}
+		}
+		return failed;
+	}
+
+	/**
+	 * Samples the throughput until all the streams are done, and takes one more
+	 * stream while that pays off
+	 */
+	private void tune(CountDownLatch done, int max) {
+		long lastBytes = 0;
+		long lastTime = System.nanoTime();
+		double best = 0;
+		int bestActive = active;
+		boolean tuning = true;
+		try {
+			while (!done.await(SAMPLE_MILLIS, TimeUnit.MILLISECONDS)) {
+				long bytes = received.get();
+				long now = System.nanoTime();
+				double rate = (double) (bytes - lastBytes) / (now - lastTime);
+				lastBytes = bytes;
+				lastTime = now;
+				if (!tuning || queue.isEmpty())
+					continue;
+				if (rate > best * 1.1) {
+					best = rate;
+					bestActive = active;
+					if (active < max)
+						active++;
+					else
+						tuning = false;
+				} else {
+					active = bestActive;
+					tuning = false;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		tuned.put(peer, bestActive);
+	}
+
+	/**
+	 * Requests ranges over one stream while there are ranges left. A stream that
+	 * is not in use waits until the tuning takes it, a stream in use fails or the
+	 * work runs out. Every failed stream is replaced by the next waiting one, so
+	 * the ranges are taken up until all the streams failed.
+	 */
+	private void work(int index) {
+		Connection connection = streams.get(index);
+		CommandSocket comSoc = connection.createCommandSocket();
+		FileSocket fiSoc = connection.createFileSocket();
+		fiSoc.setCompression(compression);
+		fiSoc.setRateLimiter(limiter);
+		ArrayList<Range> batch = new ArrayList<>();
+		while (true) {
+			if (index >= active + failures.get()) {
+				if (queue.isEmpty())
+					return;
+				try {
+					Thread.sleep(20);
+				} catch (InterruptedException e) {
+					return;
+				}
+				continue;
+			}
+			batch.clear();
+			long bytes = 0;
+			Range range;
+			while (batch.size() < Settings.PIPELINE_WINDOW && bytes < Settings.RANGE_SIZE
+					&& (range = queue.poll()) != null) {
+				if (range.target.failed)
+					continue;
+				comSoc.write(new Message(MessageType.RANGEGET).putVarInt(batch.size())
+						.putString(range.target.fI.getName()).putVarLong(range.position).putVarInt(range.length));
+				batch.add(range);
+				bytes += range.length;
+			}
+			if (batch.isEmpty())
+				return;
+			comSoc.flush();
+			for (int i = 0; i < batch.size(); i++) {
+				range = batch.get(i);
+				Message response = comSoc.receive();
+				if (response == null || response.getType() != MessageType.RANGE || response.getVarInt() != i) {
+					fail(connection, batch, i);
+					return;
+				}
+				if (response.getVarInt() == 0) {
+					range.target.failed = true;
+					continue;
+				}
+				FileChannel channel = range.target.open();
+				if (channel == null || !fiSoc.receiveRange(channel, range.position, range.length)) {
+					fail(connection, batch, i);
+					return;
+				}
+				received.addAndGet(range.length);
+				range.target.done(range);
+			}
+		}
+	}
+
+	/**
+	 * Gives up the files of the ranges of a batch that were not received, the
+	 * stream is closed since it can't be read any further
+	 */
+	private void fail(Connection connection, ArrayList<Range> batch, int from) {
+		for (int i = from; i < batch.size(); i++)
+			batch.get(i).target.failed = true;
+		connection.close();
+		failures.incrementAndGet();
+	}
+
+	/**
+	 * A range of a file that is requested over a stream
+	 */
+	private static class Range {
+
+		private Target target;
+		private long position;
+		private int length;
+
+		private Range(Target target, long position, int length) {
+			this.target = target;
+			this.position = position;
+			this.length = length;
+		}
+
+	}
+
+	/**
+	 * A file that is being received, its ranges are written into the temporary
+	 * file by the streams that received them
+	 */
+	private class Target {
+
+		private FileInfo fI;
+		private File file;
+		private FileChannel channel;
+		private BitSet arrived = new BitSet();
+		private AtomicInteger remaining = new AtomicInteger();
+		private volatile boolean failed;
+		private volatile boolean installed;
+
+		private Target(FileInfo fI) {
+			this.fI = fI;
+			file = new File(fo.getFilePath(fI.getName()) + ".tmp");
+		}
+
+		private synchronized FileChannel open() {
+			if (channel == null) {
+				try {
+					file.getParentFile().mkdirs();
+					channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+							StandardOpenOption.TRUNCATE_EXISTING);
+				} catch (IOException e) {
+					System.err.println("Couldn't create " + file.getName());
+					return null;
+				}
+			}
+			return channel;
+		}
+
+		/**
+		 * Installs the file once its last range arrived
+		 */
+		private void done(Range range) {
+			synchronized (this) {
+				arrived.set((int) (range.position / Settings.RANGE_SIZE));
+			}
+			if (remaining.decrementAndGet() != 0 || failed)
+				return;
+			try {
+				synchronized (this) {
+					channel.close();
+					channel = null;
+				}
+				if (FileHasher.hash(file) != fI.getHash())
+					return;
+				String path = fo.getFilePath(fI.getName());
+				Files.move(file.toPath(), new File(path).toPath(), StandardCopyOption.REPLACE_EXISTING);
+				fo.registerHash(fI.getHash(), path);
+				installed = true;
+				Metrics.filesReceived.increment();
+				Controller.getInstance().publishEvent("Consistency check for " + fI.getName() + " passed");
+			} catch (IOException e) {
+				System.err.println("Couldn't install " + fI.getName());
+			}
+		}
+
+		/**
+		 * Gives up the file, the ranges that arrived in a row from its beginning
+		 * are kept so that the file can be resumed after them
+		 */
+		private synchronized void abort() {
+			long kept = Math.min(fI.getLength(), (long) arrived.nextClearBit(0) * Settings.RANGE_SIZE);
+			try {
+				if (channel != null)
+					channel.truncate(kept);
+				else if (kept > 0 && file.isFile()) {
+					try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+						fc.truncate(kept);
+					}
+				}
+			} catch (IOException e) {
+				kept = 0;
+			}
+			try {
+				if (channel != null)
+					channel.close();
+			} catch (IOException e) {
+				System.err.println("Couldn't close " + file.getName());
+			}
+			channel = null;
+			if (kept == 0)
+				file.delete();
+		}
+
+	}
+
+}
@@ -0,0 +1,141 @@
+package main;
+
+/**
+ * Tunable values of FileSync. Every value can be overridden on the command line
+ * with a system property of the same name, e.g. -Dfilesync.scan.parallelism=4
+ */
+public class Settings {
+
+	/**
+	 * Number of worker threads that scan and hash the folder
+	 */
+	public static final int SCAN_PARALLELISM = Integer.getInteger("filesync.scan.parallelism",
+			Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * Files at least this long are updated with a delta against the local copy
+	 * instead of being received again
+	 */
+	public static final long DELTA_MIN_LENGTH = Long.getLong("filesync.delta.min", 65536);
+
+	/**
+	 * Files at least this long are split into chunks so that content they share
+	 * with other files is not sent again
+	 */
+	public static final long CHUNK_MIN_LENGTH = Long.getLong("filesync.chunk.min", 1 << 20);
+
+	/**
+	 * Whether file content is compressed on the wire, it is only used when the
+	 * other user enables it too
+	 */
+	public static final boolean COMPRESSION = Boolean.getBoolean("filesync.compression");
+
+	/**
+	 * Number of file requests that are sent before the first answer arrives, 1
+	 * waits for every file before requesting the next one
+	 */
+	public static final int PIPELINE_WINDOW = Math.max(1, Integer.getInteger("filesync.pipeline.window", 32));
+
+	/**
+	 * Number of data streams in each direction that are opened next to the
+	 * connection of the protocol, 1 sends everything over that connection. How
+	 * many of them are used is tuned while files are received.
+	 */
+	public static final int STREAMS = Math.max(1, Integer.getInteger("filesync.streams", 4));
+
+	/**
+	 * Files are split into ranges of this size that are received over the data
+	 * streams concurrently
+	 */
+	public static final int RANGE_SIZE = Math.max(1 << 16, Integer.getInteger("filesync.range.size", 8 << 20));
+
+	/**
+	 * Number of followers the master synchronizes at the same time, further
+	 * followers are told to come back on their next attempt
+	 */
+	public static final int MAX_SESSIONS = Math.max(1, Integer.getInteger("filesync.sessions.max", 64));
+
+	/**
+	 * Number of sessions the master runs at the same time for followers with the
+	 * same address
+	 */
+	public static final int MAX_SESSIONS_PER_PEER = Math.max(1, Integer.getInteger("filesync.sessions.peer", 2));
+
+	/**
+	 * Milliseconds for which a list of the files is given out to further sessions
+	 * instead of scanning the folder again, when the folder can't be watched for
+	 * changes
+	 */
+	public static final long SNAPSHOT_MAX_AGE = Long.getLong("filesync.snapshot.age", 2000);
+
+	/**
+	 * Files up to this long are received in bundles of many files, 0 receives
+	 * every file on its own
+	 */
+	public static final int BUNDLE_MAX_FILE = Integer.getInteger("filesync.bundle.file", 65536);
+
+	/**
+	 * Number of bytes of content that are requested in one bundle
+	 */
+	public static final int BUNDLE_SIZE = Math.max(1 << 16, Integer.getInteger("filesync.bundle.size", 4 << 20));
+
+	/**
+	 * Order in which files are received, see {@link TransferScheduler}
+	 */
+	public static final String TRANSFER_ORDER = System.getProperty("filesync.transfer.order", "smallest");
+
+	/**
+	 * Priorities of directories for the {@code directory} order, e.g.
+	 * {@code docs=10,media=-5}
+	 */
+	public static final String TRANSFER_PRIORITY = System.getProperty("filesync.transfer.priority", "");
+
+	/**
+	 * Bytes of file content per second that all the sessions together send and
+	 * receive, 0 for no limit. The limit can depend on the time of the day, e.g.
+	 * {@code 08:00-18:00=2M,10M}, and the sessions with one user can be limited
+	 * further with {@code filesync.rate.<address>}.
+	 */
+	public static final String RATE_LIMIT = System.getProperty("filesync.rate", "0");
+
+	/**
+	 * Whether a follower keeps its session with the master open between
+	 * synchronizations, so that changes are synchronized as soon as either side
+	 * sees them instead of on the next poll
+	 */
+	public static final boolean PERSISTENT_SESSIONS = Boolean
+			.parseBoolean(System.getProperty("filesync.session.persistent", "true"));
+
+	/**
+	 * Milliseconds after which an idle session sends a keepalive, a session that
+	 * hears nothing for three times as long is closed
+	 */
+	public static final long KEEPALIVE = Math.max(1000, Long.getLong("filesync.session.keepalive", 30000));
+
+	/**
+	 * Milliseconds a follower waits after the first change it hears of before it
+	 * synchronizes, so that a burst of changes is synchronized together
+	 */
+	public static final long SYNC_DEBOUNCE = Long.getLong("filesync.session.debounce", 500);
+
+	/**
+	 * File the metrics are appended to as one line of JSON every interval, none
+	 * if empty, see {@link Metrics}
+	 */
+	public static final String METRICS_FILE = System.getProperty("filesync.metrics.file", "");
+
+	/**
+	 * Seconds between two samples of the metrics
+	 */
+	public static final long METRICS_INTERVAL = Math.max(1, Long.getLong("filesync.metrics.interval", 10));
+
+	/**
+	 * Number of changes the journal keeps, followers that are further behind
+	 * compare the whole folder
+	 */
+	public static final int JOURNAL_LENGTH = Integer.getInteger("filesync.journal.length", 100000);
+
+	private Settings() {
+	}
+
+}
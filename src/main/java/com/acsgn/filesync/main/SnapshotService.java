@@ -0,0 +1,110 @@
+package main;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Shares the list of files of the folder between the sessions that run at the
+ * same time. A session that asks for the list while the folder is being
+ * scanned waits for that scan instead of starting another one, and a list that
+ * is given out again as long as it is known to be current, so the cost of
+ * scanning doesn't grow with the number of followers. While the change tracker
+ * watches the folder a list is current until the tracker sees a change, and
+ * refreshing it only hashes the changed paths. Without the tracker every
+ * refresh walks the whole folder, so a list is current for
+ * {@link Settings#SNAPSHOT_MAX_AGE}. A list is never given out again after the
+ * folder was changed through {@link FolderOperations}.
+ */
+public class SnapshotService {
+
+	private FolderOperations fo;
+	private Snapshot latest;
+	private CompletableFuture<Snapshot> scan;
+
+	/**
+	 * Creates the service of a folder
+	 *
+	 * @param fo The folder that is scanned
+	 */
+	public SnapshotService(FolderOperations fo) {
+		this.fo = fo;
+	}
+
+	/**
+	 * Gets an up to date list of the files, scanning the folder only if no recent
+	 * list can be used and no scan is running
+	 *
+	 * @return The snapshot
+	 */
+	public Snapshot get() {
+		CompletableFuture<Snapshot> pending;
+		boolean owner = false;
+		synchronized (this) {
+			if (latest != null && isFresh(latest))
+				return latest;
+			if (scan == null) {
+				scan = new CompletableFuture<>();
+				owner = true;
+			}
+			pending = scan;
+		}
+		if (owner) {
+			Snapshot snapshot = null;
+			try {
+				snapshot = new Snapshot(fo.refresh());
+			} finally {
+				synchronized (this) {
+					if (snapshot != null)
+						latest = snapshot;
+					scan = null;
+				}
+				if (snapshot != null)
+					pending.complete(snapshot);
+				else
+					pending.completeExceptionally(new IllegalStateException("Couldn't scan the folder"));
+			}
+		}
+		return pending.join();
+	}
+
+	private boolean isFresh(Snapshot snapshot) {
+		if (fo.isModified())
+			return false;
+		if (fo.isWatched())
+			return !fo.mayHaveChanged();
+		return System.currentTimeMillis() - snapshot.time < Settings.SNAPSHOT_MAX_AGE;
+	}
+
+	/**
+	 * The files of the folder at the time they were listed
+	 */
+	public static class Snapshot {
+
+		private List<FileInfo> files;
+		private long time = System.currentTimeMillis();
+
+		private Snapshot(ArrayList<FileInfo> files) {
+			this.files = Collections.unmodifiableList(files);
+		}
+
+		/**
+		 * Gets the files sorted by their names
+		 */
+		public List<FileInfo> getFiles() {
+			return files;
+		}
+
+		/**
+		 * Gets when the files were listed
+		 *
+		 * @return The time in milliseconds since the epoch
+		 */
+		public long getTime() {
+			return time;
+		}
+
+	}
+
+}
@@ -1,276 +1,1357 @@
-package main;
-
-import java.lang.reflect.Type;
-import java.util.ArrayList;
-import java.util.Hashtable;
-
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
-
-import socket.CommandSocket;
-import socket.Connection;
-import socket.FileSocket;
-
-public class SyncProtocol implements Runnable {
-
-	private static final Type hT = new TypeToken<Hashtable<Long, FileInfo>>() {
-	}.getType();
-	private static final Type aL = new TypeToken<ArrayList<FileInfo>>() {
-	}.getType();
-
-	private FolderOperations fo;
-	private Connection connection;
-	private CommandSocket comSoc;
-	private FileSocket fiSoc;
-	private boolean isMaster;
-	private Gson gson;
-
-	private Hashtable<Long, FileInfo> fileHashInfoTable;
-	private Hashtable<Long, FileInfo> oldFileHashInfoTable;
-	private ArrayList<FileInfo> deletedFiles;
-	private ArrayList<FileInfo> renamedFiles;
-
-	/**
-	 * Creates a runnable synchronization object that synchronize the system with
-	 * other user(s)
-	 * 
-	 * @param connection       connectionSocket for sync operations
-	 * @param folderOperations folderOperations for folder operations
-	 * @param isMaster         Sets system as master or follower according to value
-	 */
-	public SyncProtocol(Connection c, FolderOperations folderOperations, boolean isMaster) {
-		this.fo = folderOperations;
-		this.isMaster = isMaster;
-		this.connection = c;
-		comSoc = connection.createCommandSocket();
-		fiSoc = connection.createFileSocket();
-		fileHashInfoTable = new Hashtable<Long, FileInfo>();
-		oldFileHashInfoTable = new Hashtable<Long, FileInfo>();
-		deletedFiles = new ArrayList<FileInfo>();
-		renamedFiles = new ArrayList<FileInfo>();
-		gson = new Gson();
-	}
-
-	/**
-	 * Starts and follows the synchronization protocol for DriveCloud
-	 */
-	public void run() {
-		long time = System.nanoTime();
-		updateFileList();
-		detectDeletedAndRenamedFiles();
-		if (isMaster) {
-			sendRenamedList();
-			sendDeletedList();
-			sendFileList();
-		}
-		String received;
-		do {
-			received = comSoc.receiveCommand();
-			System.out.println(received);
-			if (received.startsWith("TRANSMIT"))
-				sendFile(received.replaceFirst("TRANSMIT", ""));
-			else if (received.startsWith("DELETE"))
-				deleteFiles(received.replaceFirst("DELETE", ""));
-			else if (received.startsWith("RENAME"))
-				renameFiles(received.replaceFirst("DELETE", ""));
-			else if (received.startsWith("FILELIST")) {
-				updateFolder(received);
-				if (isMaster)
-					close();
-				else {
-					sendRenamedList();
-					sendDeletedList();
-					sendFileList();
-				}
-			}
-		} while (!received.equals("CLOSE"));
-		if (!isMaster)
-			close();
-		connection.close();
-		System.out.println(System.nanoTime() - time);
-	}
-
-	private void updateFolder(String received) {
-		String json = received.replaceFirst("FILELIST", "");
-		if (json.length() > 0) {
-			ArrayList<FileInfo> filesToGet = detectFilesToGet(json);
-			if (filesToGet != null) {
-				for (FileInfo fI: filesToGet) {
-					do {
-						Controller.getInstance()
-								.publishEvent("Transmit request for file " + fI.getName() + " sent.");
-						sendFileRequest(fI.getName());
-						receiveFile(fI);
-					} while (!fo.hashCheck(fI.getName(), fI.getHash()));
-					Controller.getInstance().publishEvent("Consistency check for " + fI.getName() + " passed");
-				}
-				updateFileList();
-			}
-		}
-	}
-
-	/**
-	 * Sends the files' all informations to other user
-	 */
-	private void sendFileList() {
-		String command = "FILELIST";
-		if (!fileHashInfoTable.isEmpty()) {
-			command += gson.toJson(fileHashInfoTable, hT);
-		}
-		comSoc.sendCommand(command);
-	}
-
-	/**
-	 * Sends renamed files' SHA1 values and new names to the other user with RENAME
-	 * command
-	 */
-	private void sendRenamedList() {
-		if (!renamedFiles.isEmpty()) {
-			String command = "RENAME";
-			command += gson.toJson(renamedFiles, aL);
-			comSoc.sendCommand(command);
-		}
-	}
-
-	/**
-	 * Sends deleted files' names to the other user with DELETE command
-	 */
-	private void sendDeletedList() {
-		if (!deletedFiles.isEmpty()) {
-			String command = "DELETE";
-			command += gson.toJson(deletedFiles, aL);
-			comSoc.sendCommand(command);
-		}
-	}
-
-	/**
-	 * Renames all the files in command with received new names
-	 * 
-	 * @param command RENAME command of the other user
-	 */
-	private void renameFiles(String json) {
-		ArrayList<FileInfo> rF = gson.fromJson(json, aL);
-		for (FileInfo fI : rF) {
-			String oldName = fileHashInfoTable.get(fI.getHash()).getName();
-			Controller.getInstance().publishEvent("File name changed from " + oldName + " to " + fI.getName());
-			fo.renameFile(oldName, fI.getName());
-		}
-	}
-
-	/**
-	 * Deletes all the files in command
-	 * 
-	 * @param command DELETE command of the other user
-	 */
-	private void deleteFiles(String json) {
-		ArrayList<FileInfo> dF = gson.fromJson(json, aL);
-		for (FileInfo fI : dF) {
-			Controller.getInstance().publishEvent("File named " + fI.getName() + " deleted.");
-			fo.deleteFile(fI.getName());
-		}
-	}
-
-	/**
-	 * Sends a file request to the other user in order to receive the file
-	 * 
-	 * @param fileName The name of the requested file
-	 */
-	private void sendFileRequest(String fileName) {
-		comSoc.sendCommand("TRANSMIT" + fileName);
-	}
-
-	/**
-	 * Sends the file to the other user
-	 * 
-	 * @param filename The name of the file that will be sent
-	 */
-	private void sendFile(String fileName) {
-		Controller.getInstance().publishEvent("Sending " + fileName);
-		fiSoc.sendFile(fo.getFilePath(fileName));
-		Controller.getInstance().publishEvent(fileName + " sent.");
-	}
-
-	/**
-	 * Receives the file related with the info provided
-	 * 
-	 * @param fileInfo The information of the file
-	 */
-	private void receiveFile(FileInfo fI) {
-		fiSoc.receiveFile(fo.getFilePath(fI.getName()), fI.getLength(), fo);
-	}
-
-	/**
-	 * Updates the list of files in the system for changes on folder
-	 */
-	private void updateFileList() {
-		ArrayList<FileInfo> fileInfoList = fo.update();
-		oldFileHashInfoTable.clear();
-		deletedFiles.clear();
-		renamedFiles.clear();
-		oldFileHashInfoTable.putAll(fileHashInfoTable);
-		fileHashInfoTable.clear();
-		if (!fileInfoList.isEmpty()) {
-			for (FileInfo tmp : fileInfoList) {
-				fileHashInfoTable.put(tmp.getHash(), tmp);
-			}
-		}
-	}
-
-	/**
-	 * Detects the files that are not in the system by comparing SHA1 values of
-	 * received file list with SHA1 values of flies in our system
-	 * 
-	 * @param command FILELIST command of the other user
-	 * @return Files that will be requested from the other user
-	 */
-	private ArrayList<FileInfo> detectFilesToGet(String json) {
-		ArrayList<FileInfo> tmp = new ArrayList<>();
-		Hashtable<Long, FileInfo> list = gson.fromJson(json, hT);
-		for (FileInfo fI: list.values()) {
-			if (!fileHashInfoTable.containsKey(fI.getHash()) && !oldFileHashInfoTable.containsKey(fI.getHash()))
-				tmp.add(fI);
-		}
-		return tmp;
-	}
-
-	/**
-	 * Detects deleted or renamed files in the system by comparing old and new file
-	 * informations in maps
-	 */
-	private void detectDeletedAndRenamedFiles() {
-		if (!oldFileHashInfoTable.isEmpty()) {
-			if (fileHashInfoTable.isEmpty())
-				oldFileHashInfoTable.values().forEach(fI -> deletedFiles.add(fI));
-			else {
-				ArrayList<Long> hashes = new ArrayList<Long>();
-				fileHashInfoTable.keySet().forEach(str -> hashes.add(str));
-				for (long hash : hashes) {
-					if (oldFileHashInfoTable.containsKey(hash)) {
-						String name = fileHashInfoTable.get(hash).getName();
-						String oldName = oldFileHashInfoTable.get(hash).getName();
-						if (!name.equals(oldName))
-							renamedFiles.add(fileHashInfoTable.get(hash));
-					}
-				}
-				hashes.forEach(hash -> oldFileHashInfoTable.remove(hash));
-				for (FileInfo tmp : oldFileHashInfoTable.values()) {
-					boolean deleted = true;
-					for (long hash : hashes) {
-						if (fileHashInfoTable.get(hash).getName().equals(tmp.getName()))
-							deleted = false;
-					}
-					if (deleted)
-						deletedFiles.add(tmp);
-				}
-			}
-		}
-	}
-
-	/**
-	 * Closes the protocol
-	 */
-	private void close() {
-		comSoc.sendCommand("CLOSE");
-	}
-
-}
+package main;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import main.ChunkStore.Chunks;
+import main.ChunkStore.Location;
+import main.MerkleTree.Listing;
+import socket.BlockChecksum;
+import socket.CommandSocket;
+import socket.Connection;
+import socket.DeltaEngine;
+import socket.DeltaEngine.Signatures;
+import socket.FileSocket;
+import socket.Message;
+import socket.MessageType;
+import socket.RateLimiter;
+import socket.StreamGroup;
+
+public class SyncProtocol implements Runnable {
+
+	/**
+	 * Version of the messages, it has to be increased whenever their format
+	 * changes
+	 */
+	private static final int PROTOCOL_VERSION = 11;
+	private static final int MAGIC = 0x46535943;
+	private static final int COMPRESSION = 1;
+	private static final int PERSISTENT = 2;
+	private static final int IDLE_TICK = 200;
+	private static final int MAX_ATTEMPTS = 3;
+	private static final int MAX_PENDING_REQUEST_BYTES = 1 << 15;
+	private static final int MAX_FRAME_BYTES = 1 << 16;
+	private static final long JOIN_TIMEOUT = 5000;
+	private static final int LISTING_END = 0;
+	private static final int LISTING_DIRECTORY = 1;
+	private static final int LISTING_FILE = 2;
+
+	private FolderOperations fo;
+	private Connection connection;
+	private CommandSocket comSoc;
+	private FileSocket fiSoc;
+	private boolean isMaster;
+	private boolean compression;
+	private RateLimiter limiter;
+	private TransferScheduler scheduler = new TransferScheduler();
+	private StreamGroup group;
+	private boolean joined;
+	private boolean persistent;
+	private volatile boolean stopped;
+	private int streamCount;
+	private long started;
+
+	private boolean idle;
+	private boolean suspendable;
+	private boolean suspended;
+	private boolean pushes;
+	private boolean notified;
+	private long seenVersion;
+	private long pollInterval;
+	private long lastRound;
+	private long lastReceived;
+	private long lastPing;
+	private long dueAt;
+
+	private long journalId;
+	private long journalSequence = -1;
+	private long dedupReused;
+	private long dedupTotal;
+	private int nextRequestId;
+
+	/**
+	 * Creates a runnable synchronization object that synchronize the system with
+	 * other user(s)
+	 * 
+	 * @param connection       connectionSocket for sync operations
+	 * @param folderOperations folderOperations for folder operations
+	 * @param isMaster         Sets system as master or follower according to value
+	 */
+	public SyncProtocol(Connection c, FolderOperations folderOperations, boolean isMaster) {
+		this.fo = folderOperations;
+		this.isMaster = isMaster;
+		this.connection = c;
+		comSoc = connection.createCommandSocket();
+		fiSoc = connection.createFileSocket();
+	}
+
+	/**
+	 * Sets how often a persistent session synchronizes when changes can't be
+	 * pushed, because one of the folders isn't watched
+	 * 
+	 * @param pollInterval Milliseconds between synchronizations, 0 for never
+	 */
+	public void setPollInterval(long pollInterval) {
+		this.pollInterval = pollInterval;
+	}
+
+	/**
+	 * Asks the session to end, a persistent session ends when it is idle next
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	/**
+	 * Lets an idle session of the master return from {@link #run()} instead of
+	 * waiting in its thread, the caller waits for the connection and runs the
+	 * session again when the follower sends something or {@link #isDue()}
+	 * 
+	 * @param suspendable Whether the session may return while it is idle
+	 */
+	public void setSuspendable(boolean suspendable) {
+		this.suspendable = suspendable;
+	}
+
+	/**
+	 * Gets whether the session returned from {@link #run()} because it is idle,
+	 * its connection is still open then
+	 * 
+	 * @return Whether the session has to be run again
+	 */
+	public boolean isSuspended() {
+		return suspended;
+	}
+
+	/**
+	 * Gets whether a suspended session has something to do although the follower
+	 * didn't send anything: it has to end, to send a keepalive or to tell the
+	 * follower that the folder changed
+	 * 
+	 * @return Whether the session has to be run again
+	 */
+	public boolean isDue() {
+		long now = System.currentTimeMillis();
+		return stopped || now - lastReceived > 3 * Settings.KEEPALIVE || now - lastPing >= Settings.KEEPALIVE
+				|| isMaster && !notified && folderChanged();
+	}
+
+	/**
+	 * Gets whether the folder of the master changed since the session became idle
+	 */
+	private boolean folderChanged() {
+		return fo.getVersion() != seenVersion || fo.isWatched() && fo.mayHaveChanged();
+	}
+
+	/**
+	 * Starts and follows the synchronization protocol for DriveCloud. If both
+	 * sides agreed on a persistent session, the connection stays open after a
+	 * synchronization: the master tells the follower when its folder changed, and
+	 * the follower synchronizes shortly after either folder changed, see
+	 * {@link #next()}. A malformed message of the other user ends the session.
+	 * A suspended session continues where it left off.
+	 */
+	public void run() {
+		try {
+			if (suspended)
+				suspended = false;
+			else {
+				started = System.nanoTime();
+				if (!handshake()) {
+					if (!joined)
+						connection.close();
+					return;
+				}
+				if (isMaster)
+					updateFileList();
+				else
+					startRound();
+			}
+			Message received;
+			while ((received = next()) != null && received.getType() != MessageType.CLOSE) {
+				switch (received.getType()) {
+				case TRANSMIT:
+					sendFile(received);
+					break;
+				case BUNDLEGET:
+					sendBundle(received);
+					break;
+				case CHUNKS:
+					sendChunkList(received.getString());
+					break;
+				case CHUNKGET:
+					sendChunks(received);
+					break;
+				case DELTA:
+					sendDelta(Signatures.readFrom(received));
+					break;
+				case TREE:
+					sendListings(received);
+					break;
+				case BLOCKSUMS:
+					sendBlockSums(received);
+					break;
+				case BLOCKGET:
+					sendBlocks(received);
+					break;
+				case SINCE:
+					if (idle) {
+						idle = false;
+						reopenStreams();
+						updateFileList();
+					}
+					sendJournal(received.getLong(), received.getLong());
+					sendRoot();
+					break;
+				case JOURNAL:
+					applyJournal(received);
+					break;
+				case JOIN:
+					openStreams(streamCount, received.getLong());
+					break;
+				case ROOT:
+					updateFolder(findChangedFiles(received.getLong()));
+					if (isMaster && persistent && !stopped)
+						rest();
+					else if (isMaster)
+						close();
+					else
+						sendRoot();
+					break;
+				case IDLE:
+					rested(received);
+					break;
+				case CHANGED:
+					if (idle && dueAt == 0)
+						dueAt = System.currentTimeMillis() + Settings.SYNC_DEBOUNCE;
+					break;
+				case PING:
+					break;
+				default:
+					System.err.println("Unexpected " + received.getType());
+				}
+			}
+			if (suspended)
+				return;
+			if (!isMaster && received != null) {
+				if (journalSequence >= 0)
+					fo.getSyncState().save(journalId, journalSequence);
+				close();
+			}
+		} catch (IllegalStateException e) {
+			System.err.println("Couldn't read a message of the other user: " + e.getMessage());
+		}
+		closeStreams();
+		connection.close();
+		Metrics.sessionMillis.record((System.nanoTime() - started) / 1000000);
+	}
+
+	/**
+	 * Checks that both sides speak the same version of the protocol and agrees on
+	 * the options of the connection. The follower sends its version, the options
+	 * it wants and the number of data streams it can use, the master replies with
+	 * its version, the options both sides support and the number of streams with
+	 * the id of the session they join. A connection that starts with JOIN instead
+	 * is a data stream of a session that is already running, and a master that
+	 * can't take another session answers BUSY.
+	 * 
+	 * @return Whether the synchronization can continue
+	 */
+	private boolean handshake() {
+		int options = (Settings.COMPRESSION ? COMPRESSION : 0) | (Settings.PERSISTENT_SESSIONS ? PERSISTENT : 0);
+		if (!isMaster)
+			comSoc.send(new Message(MessageType.HELLO).putInt(MAGIC).putVarInt(PROTOCOL_VERSION).putVarInt(options)
+					.putVarInt(Settings.STREAMS));
+		Message received = connection.getGreeting() != null ? connection.getGreeting() : comSoc.receive();
+		if (isMaster && received != null && received.getType() == MessageType.JOIN) {
+			joined = received.getInt() == MAGIC
+					&& StreamGroup.join(received.getLong(), received.getVarInt(), connection);
+			return false;
+		}
+		if (!isMaster && received != null && received.getType() == MessageType.BUSY) {
+			Controller.getInstance().publishEvent("The master is busy, the folder is synchronized on the next attempt.");
+			return false;
+		}
+		if (received == null || received.getType() != MessageType.HELLO || received.getInt() != MAGIC) {
+			Controller.getInstance().publishEvent("The other user doesn't speak the FileSync protocol.");
+			return false;
+		}
+		int version = received.getVarInt();
+		int agreed = options & received.getVarInt();
+		int streams = version == PROTOCOL_VERSION ? Math.min(Settings.STREAMS, received.getVarInt()) : 1;
+		if (isMaster) {
+			if (streams > 1 && version == PROTOCOL_VERSION)
+				group = StreamGroup.open(streams);
+			comSoc.send(new Message(MessageType.HELLO).putInt(MAGIC).putVarInt(PROTOCOL_VERSION).putVarInt(agreed)
+					.putVarInt(streams).putLong(group == null ? 0 : group.getId()));
+		}
+		if (version != PROTOCOL_VERSION) {
+			Controller.getInstance().publishEvent("The other user uses protocol version " + version + " instead of "
+					+ PROTOCOL_VERSION + ", update both sides to the same version.");
+			return false;
+		}
+		if (isMaster)
+			Controller.getInstance().publishEvent("Connected to a follower.");
+		compression = (agreed & COMPRESSION) != 0;
+		persistent = (agreed & PERSISTENT) != 0;
+		fiSoc.setCompression(compression);
+		limiter = TransferScheduler.getLimiter(connection.getRemoteAddress());
+		fiSoc.setRateLimiter(limiter);
+		if (compression)
+			Controller.getInstance().publishEvent("File transfers are compressed.");
+		openStreams(streams, isMaster ? 0 : received.getLong());
+		return true;
+	}
+
+	/**
+	 * Gets the next message. While a persistent session is idle, it waits in
+	 * steps of {@link #IDLE_TICK} and checks between them whether the session
+	 * should do something: the master tells the follower once when its folder
+	 * changed, the follower starts a synchronization {@link Settings#SYNC_DEBOUNCE}
+	 * after it heard of a change of either folder, and both sides send a
+	 * keepalive after {@link Settings#KEEPALIVE} and close the session if the
+	 * other side was silent for three times as long. When a folder isn't watched
+	 * the follower synchronizes every poll interval instead. A suspendable
+	 * session doesn't wait, it does what is due and suspends.
+	 * 
+	 * @return The message or null if the session is over or suspended
+	 */
+	private Message next() {
+		while (idle && !connection.await(suspendable ? 1 : IDLE_TICK)) {
+			long now = System.currentTimeMillis();
+			if (stopped) {
+				close();
+				if (!isMaster)
+					return null;
+				idle = false;
+				break;
+			}
+			if (now - lastReceived > 3 * Settings.KEEPALIVE) {
+				Controller.getInstance().publishEvent("The other user stopped answering, the session is closed.");
+				return null;
+			}
+			if (isMaster && !notified && folderChanged()) {
+				comSoc.send(MessageType.CHANGED);
+				notified = true;
+				lastPing = now;
+			}
+			if (!isMaster && dueAt == 0 && (fo.isWatched() && fo.mayHaveChanged()
+					|| !(pushes && fo.isWatched()) && pollInterval > 0 && now - lastRound >= pollInterval))
+				dueAt = now + Settings.SYNC_DEBOUNCE;
+			if (!isMaster && dueAt != 0 && now >= dueAt) {
+				startRound();
+				break;
+			}
+			if (now - lastPing >= Settings.KEEPALIVE) {
+				comSoc.send(MessageType.PING);
+				lastPing = now;
+			}
+			if (suspendable) {
+				suspended = true;
+				return null;
+			}
+		}
+		Message received = comSoc.receive();
+		lastReceived = System.currentTimeMillis();
+		return received;
+	}
+
+	/**
+	 * Starts a synchronization on the follower, it asks for the changes the
+	 * master journaled since the last one
+	 */
+	private void startRound() {
+		idle = false;
+		dueAt = 0;
+		updateFileList();
+		SyncState state = fo.getSyncState();
+		comSoc.send(new Message(MessageType.SINCE).putLong(state.getJournalId()).putLong(state.getSequence()));
+	}
+
+	/**
+	 * Ends a synchronization on the master and keeps the session open, the
+	 * follower learns whether the master will tell it about changes. The data
+	 * streams are closed until the next synchronization.
+	 */
+	private void rest() {
+		closeStreams();
+		comSoc.send(new Message(MessageType.IDLE).putVarInt(fo.isWatched() ? 1 : 0));
+		seenVersion = fo.getVersion();
+		notified = false;
+		idle = true;
+		lastPing = lastReceived = System.currentTimeMillis();
+	}
+
+	/**
+	 * Ends a synchronization on the follower and keeps the session open, the
+	 * data streams are closed until the next synchronization
+	 * 
+	 * @param received The message of the master
+	 */
+	private void rested(Message received) {
+		if (journalSequence >= 0)
+			fo.getSyncState().save(journalId, journalSequence);
+		closeStreams();
+		pushes = received.getVarInt() == 1;
+		idle = true;
+		lastRound = lastPing = lastReceived = System.currentTimeMillis();
+		Controller.getInstance().publishEvent(pushes ? "Synchronized, waiting for changes."
+				: "Synchronized, the master's folder is checked for changes every " + pollInterval / 1000 + " seconds.");
+	}
+
+	/**
+	 * Sets up the data streams of the session. The follower opens them and joins
+	 * each one to the session, the master waits until all of them joined and
+	 * tells the follower whether they did. Both sides serve the streams over
+	 * which the other side requests, if the streams can't be set up files are
+	 * sent over the connection of the protocol.
+	 * 
+	 * @param count   Number of streams in each direction
+	 * @param session Id of the session the streams join
+	 */
+	private void openStreams(int count, long session) {
+		if (count <= 1)
+			return;
+		boolean ready = true;
+		if (isMaster) {
+			ready = group.await(JOIN_TIMEOUT);
+			comSoc.send(new Message(MessageType.JOIN).putVarInt(ready ? 1 : 0));
+		} else {
+			group = new StreamGroup(session, count);
+			try {
+				for (int direction : new int[] { StreamGroup.DOWNLOAD, StreamGroup.UPLOAD }) {
+					for (int i = 0; i < count; i++) {
+						Connection stream = connection.openSibling();
+						group.add(direction, stream);
+						stream.createCommandSocket().send(
+								new Message(MessageType.JOIN).putInt(MAGIC).putLong(session).putVarInt(direction));
+					}
+				}
+			} catch (IOException e) {
+				ready = false;
+			}
+			Message answer = comSoc.receive();
+			if (answer == null || answer.getType() != MessageType.JOIN || answer.getVarInt() == 0)
+				ready = false;
+		}
+		if (!ready) {
+			group.close();
+			group = null;
+			streamCount = 0;
+			Controller.getInstance().publishEvent("Data streams didn't connect, files are sent over one connection.");
+			return;
+		}
+		for (Connection stream : group.getStreams(isMaster ? StreamGroup.DOWNLOAD : StreamGroup.UPLOAD))
+			ParallelTransfer.serve(fo, stream, compression, limiter);
+		if (streamCount != count)
+			Controller.getInstance().publishEvent("Files are sent over up to " + count + " data streams.");
+		streamCount = count;
+	}
+
+	/**
+	 * Receives the files that differ in the order of the scheduler. Files that
+	 * are sent whole are collected so they can be requested together, and they
+	 * are received before a file that comes later in the order is updated with
+	 * a delta or from chunks. Files that were partly received before are always
+	 * sent whole, so they are resumed after the part that arrived.
+	 * 
+	 * @param list The information of the files on the other side that differ
+	 */
+	private void updateFolder(ArrayList<FileInfo> list) {
+		if (!list.isEmpty()) {
+			ArrayList<FileInfo> filesToGet = detectFilesToGet(list);
+			if (filesToGet != null) {
+				ArrayList<FileInfo> toTransmit = new ArrayList<>();
+				for (FileInfo fI: scheduler.order(filesToGet)) {
+					FileInfo local = fo.getFileInfo(fI.getName());
+					boolean delta = local != null && local.getLength() >= Settings.DELTA_MIN_LENGTH;
+					boolean chunks = fI.getLength() >= Settings.CHUNK_MIN_LENGTH;
+					if (FileSocket.hasPartial(fo.getFilePath(fI.getName())) || !delta && !chunks) {
+						toTransmit.add(fI);
+						continue;
+					}
+					receiveFiles(toTransmit);
+					toTransmit.clear();
+					if (delta && receiveDelta(fI)) {
+						Metrics.filesReceived.increment();
+						Controller.getInstance().publishEvent("Consistency check for " + fI.getName() + " passed");
+						continue;
+					}
+					if (chunks && receiveChunks(fI)) {
+						Metrics.filesReceived.increment();
+						Controller.getInstance().publishEvent("Consistency check for " + fI.getName() + " passed");
+						continue;
+					}
+					toTransmit.add(fI);
+				}
+				receiveFiles(toTransmit);
+				if (dedupTotal > 0)
+					Controller.getInstance().publishEvent("Deduplication saved " + dedupReused + " of " + dedupTotal
+							+ " bytes (" + 100 * dedupReused / dedupTotal + "%).");
+				updateFileList();
+			}
+		}
+	}
+
+	/**
+	 * Sends the root hash of the folder to other user, the other user descends
+	 * into the directories that differ from its own with TREE requests
+	 */
+	private void sendRoot() {
+		comSoc.send(new Message(MessageType.ROOT).putLong(fo.getTree().getRootHash()));
+	}
+
+	/**
+	 * Finds the files of the other user that differ from the local ones. Only the
+	 * directories whose hashes differ are listed, one level of the tree per round
+	 * trip. Entries are compared with the local ones while they arrive, so only
+	 * the differences are kept in memory however large the folder is.
+	 * 
+	 * @param rootHash Root hash of the folder of the other user
+	 * @return Files of the other user that are missing or different here
+	 */
+	private ArrayList<FileInfo> findChangedFiles(long rootHash) {
+		ArrayList<FileInfo> changed = new ArrayList<>();
+		if (rootHash == fo.getTree().getRootHash())
+			return changed;
+		ArrayList<String> level = new ArrayList<>();
+		level.add("");
+		while (!level.isEmpty()) {
+			ArrayList<String> next = new ArrayList<>();
+			int from = 0;
+			while (from < level.size()) {
+				Message request = new Message(MessageType.TREE);
+				int to = from;
+				while (to < level.size() && request.size() < MAX_FRAME_BYTES)
+					request.putString(level.get(to++));
+				comSoc.send(request);
+				if (!compareListings(level.subList(from, to), next, changed)) {
+					connection.close();
+					return new ArrayList<>();
+				}
+				from = to;
+			}
+			level = next;
+		}
+		return changed;
+	}
+
+	/**
+	 * Reads the listings of the requested directories and compares them with the
+	 * local ones
+	 * 
+	 * @param paths   Paths of the requested directories
+	 * @param next    Subdirectories that differ are added here
+	 * @param changed Files that differ are added here
+	 * @return Whether all the listings were received
+	 */
+	private boolean compareListings(List<String> paths, ArrayList<String> next, ArrayList<FileInfo> changed) {
+		MerkleTree tree = fo.getTree();
+		int ended = 0;
+		while (ended < paths.size()) {
+			Message received = comSoc.receive();
+			if (received == null || received.getType() != MessageType.TREE)
+				return false;
+			while (received.hasRemaining() && ended < paths.size()) {
+				int kind = received.getVarInt();
+				if (kind == LISTING_END) {
+					ended++;
+				} else if (kind == LISTING_DIRECTORY) {
+					String path = MerkleTree.child(paths.get(ended), received.getString());
+					long hash = received.getLong();
+					Long mine = tree.getDirectoryHash(path);
+					if (mine == null || mine != hash)
+						next.add(path);
+				} else {
+					FileInfo fI = received.getFileInfo();
+					FileInfo mine = fo.getFileInfo(fI.getName());
+					if (mine == null || mine.getHash() != fI.getHash())
+						changed.add(fI);
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Sends the listings of the requested directories. The entries are cut into
+	 * frames of about {@link #MAX_FRAME_BYTES}, the listing of every directory
+	 * ends with {@link #LISTING_END}.
+	 * 
+	 * @param request Paths of the directories
+	 */
+	private void sendListings(Message request) {
+		MerkleTree tree = fo.getTree();
+		Message message = new Message(MessageType.TREE);
+		while (request.hasRemaining()) {
+			Listing listing = tree.list(request.getString());
+			for (Map.Entry<String, Long> entry : listing.getDirectories().entrySet()) {
+				message.putVarInt(LISTING_DIRECTORY).putString(entry.getKey()).putLong(entry.getValue());
+				message = writeIfFull(message);
+			}
+			for (FileInfo fI : listing.getFiles()) {
+				message.putVarInt(LISTING_FILE).putFileInfo(fI);
+				message = writeIfFull(message);
+			}
+			message.putVarInt(LISTING_END);
+		}
+		comSoc.send(message);
+	}
+
+	/**
+	 * Writes the message once it reached {@link #MAX_FRAME_BYTES}
+	 * 
+	 * @param message The message that is being filled
+	 * @return The same message, or an empty one of the same type if it was written
+	 */
+	private Message writeIfFull(Message message) {
+		if (message.size() < MAX_FRAME_BYTES)
+			return message;
+		comSoc.write(message);
+		return new Message(message.getType());
+	}
+
+	/**
+	 * Sends the changes of the journal after the last one the follower applied,
+	 * in frames of about {@link #MAX_FRAME_BYTES}. If the follower knows another
+	 * journal or some of its changes were already dropped only the position of the
+	 * journal is sent, and the follower finds the changes by comparing the hash
+	 * trees alone.
+	 * 
+	 * @param id       Id of the journal the follower knows
+	 * @param sequence The last sequence number the follower applied
+	 */
+	private void sendJournal(long id, long sequence) {
+		ChangeJournal journal = fo.getJournal();
+		long last = journal.getLastSequence();
+		ArrayList<ChangeJournal.Change> changes = id == journal.getId() ? journal.since(sequence) : null;
+		if (changes == null)
+			changes = new ArrayList<>();
+		else if (!changes.isEmpty())
+			last = changes.get(changes.size() - 1).getSequence();
+		int from = 0;
+		do {
+			int to = from;
+			int size = 0;
+			while (to < changes.size() && size < MAX_FRAME_BYTES)
+				size += changeSize(changes.get(to++));
+			Message message = new Message(MessageType.JOURNAL).putLong(journal.getId()).putLong(last)
+					.putVarInt(to < changes.size() ? 1 : 0);
+			for (ChangeJournal.Change change : changes.subList(from, to))
+				message.putVarInt(change.getType()).putString(change.getName()).putString(change.getOldName())
+						.putVarLong(change.getLength()).putLong(change.getHash());
+			comSoc.write(message);
+			from = to;
+		} while (from < changes.size());
+		comSoc.flush();
+	}
+
+	/**
+	 * Estimates the number of bytes a change takes in a message
+	 */
+	private static int changeSize(ChangeJournal.Change change) {
+		return 32 + 3 * (change.getName().length() + change.getOldName().length());
+	}
+
+	/**
+	 * Applies the renames and deletions of a frame of the journal of the master.
+	 * A file is only renamed or deleted if it still has the content the master
+	 * had, changed content is left alone and found through the hash trees like the
+	 * created and modified files. The position is stored once the synchronization
+	 * completes.
+	 * 
+	 * @param message Some of the changes since the last synchronization
+	 */
+	private void applyJournal(Message message) {
+		journalId = message.getLong();
+		journalSequence = message.getLong();
+		boolean more = message.getVarInt() != 0;
+		while (message.hasRemaining()) {
+			int type = message.getVarInt();
+			String name = message.getString();
+			String oldName = message.getString();
+			message.getVarLong();
+			long hash = message.getLong();
+			if (type != ChangeJournal.DELETE && type != ChangeJournal.MOVE)
+				scheduler.changed(name);
+			if (type == ChangeJournal.RENAME) {
+				FileInfo old = fo.getFileInfo(oldName);
+				if (old != null && old.getHash() == hash && fo.getFileInfo(name) == null) {
+					Controller.getInstance().publishEvent("File name changed from " + oldName + " to " + name);
+					fo.renameFile(oldName, name);
+				}
+			} else if (type == ChangeJournal.MOVE) {
+				if (fo.renameDirectory(oldName, name)) {
+					Controller.getInstance().publishEvent("Folder moved from " + oldName + " to " + name);
+					continue;
+				}
+				// The directory can't be moved as a whole, its files are renamed one by one
+				for (FileInfo old : fo.getFilesUnder(oldName)) {
+					String newName = name + old.getName().substring(oldName.length());
+					if (fo.getFileInfo(newName) == null) {
+						Controller.getInstance()
+								.publishEvent("File name changed from " + old.getName() + " to " + newName);
+						fo.renameFile(old.getName(), newName);
+					}
+				}
+			} else if (type == ChangeJournal.DELETE) {
+				FileInfo old = fo.getFileInfo(name);
+				if (old != null && old.getHash() == hash) {
+					Controller.getInstance().publishEvent("File named " + name + " deleted.");
+					fo.deleteFile(name);
+				}
+			}
+		}
+		if (!more)
+			updateFileList();
+	}
+
+	/**
+	 * Receives the small files in bundles. A bundle is requested with the names
+	 * of up to {@link Settings#BUNDLE_SIZE} bytes of files, the other user
+	 * answers with the length and the hash of every file followed by their
+	 * content, and the next bundle is requested before this one arrives. The
+	 * files of a bundle are written next to their targets, moved into place and
+	 * registered together.
+	 * 
+	 * @param files The information of the files on the other side
+	 * @return The files that have to be received on their own, or null if the
+	 *         connection is broken
+	 */
+	private ArrayList<FileInfo> receiveBundles(ArrayList<FileInfo> files) {
+		ArrayList<FileInfo> rest = new ArrayList<>();
+		ArrayDeque<ArrayList<FileInfo>> bundles = new ArrayDeque<>();
+		ArrayList<FileInfo> bundle = new ArrayList<>();
+		long bytes = 0;
+		int requestBytes = 0;
+		for (FileInfo fI : files) {
+			if (fI.getLength() > Settings.BUNDLE_MAX_FILE || FileSocket.hasPartial(fo.getFilePath(fI.getName()))) {
+				rest.add(fI);
+				continue;
+			}
+			if (!bundle.isEmpty() && (bytes + fI.getLength() > Settings.BUNDLE_SIZE
+					|| requestBytes + requestSize(fI) > MAX_FRAME_BYTES)) {
+				bundles.add(bundle);
+				bundle = new ArrayList<>();
+				bytes = 0;
+				requestBytes = 0;
+			}
+			bundle.add(fI);
+			bytes += fI.getLength();
+			requestBytes += requestSize(fI);
+		}
+		if (bundle.size() > 1)
+			bundles.add(bundle);
+		else
+			rest.addAll(bundle);
+
+		ArrayDeque<ArrayList<FileInfo>> pending = new ArrayDeque<>();
+		ArrayDeque<Integer> pendingIds = new ArrayDeque<>();
+		while (!bundles.isEmpty() || !pending.isEmpty()) {
+			while (!bundles.isEmpty() && pending.size() < 2) {
+				ArrayList<FileInfo> next = bundles.poll();
+				Message request = new Message(MessageType.BUNDLEGET).putVarInt(nextRequestId).putVarInt(next.size());
+				for (FileInfo fI : next)
+					request.putString(fI.getName());
+				comSoc.send(request);
+				pending.add(next);
+				pendingIds.add(nextRequestId++);
+			}
+			if (!receiveBundle(pendingIds.poll(), pending.poll(), rest)) {
+				connection.close();
+				return null;
+			}
+		}
+		return rest;
+	}
+
+	/**
+	 * Receives the answer to a bundle request and installs its files
+	 * 
+	 * @param id     The id of the request
+	 * @param bundle The files that were requested
+	 * @param rest   Files that have to be received on their own are added here
+	 * @return false if the connection is broken
+	 */
+	private boolean receiveBundle(int id, ArrayList<FileInfo> bundle, ArrayList<FileInfo> rest) {
+		Message header = comSoc.receive();
+		if (header == null || header.getType() != MessageType.BUNDLE || header.getVarInt() != id
+				|| header.getVarInt() != bundle.size()) {
+			System.err.println("Couldn't match the answer for a bundle");
+			return false;
+		}
+		// The files may have grown since they were listed, but not by more than one
+		// file of a bundle can hold
+		long limit = Settings.BUNDLE_MAX_FILE;
+		for (FileInfo fI : bundle)
+			limit += fI.getLength();
+		long[] lengths = new long[bundle.size()];
+		long[] hashes = new long[bundle.size()];
+		long total = 0;
+		for (int i = 0; i < lengths.length; i++) {
+			lengths[i] = header.getVarLong() - 1;
+			hashes[i] = lengths[i] < 0 ? 0 : header.getLong();
+			if (lengths[i] > limit - total) {
+				System.err.println("Couldn't accept a bundle larger than the requested files");
+				return false;
+			}
+			total += Math.max(0, lengths[i]);
+		}
+		if (total > Integer.MAX_VALUE - 8)
+			return false;
+		byte[] data = new byte[(int) total];
+		if (!fiSoc.receiveBytes(data, data.length))
+			return false;
+
+		HashSet<File> directories = new HashSet<>();
+		for (FileInfo fI : bundle)
+			directories.add(new File(fo.getFilePath(fI.getName())).getParentFile());
+		for (File directory : directories)
+			directory.mkdirs();
+		ArrayList<FileInfo> received = new ArrayList<>();
+		int offset = 0;
+		for (int i = 0; i < lengths.length; i++) {
+			FileInfo fI = bundle.get(i);
+			if (lengths[i] < 0) {
+				rest.add(fI);
+				continue;
+			}
+			int length = (int) lengths[i];
+			File tmp = new File(fo.getFilePath(fI.getName()) + ".tmp");
+			if (FileHasher.hash(data, offset, length) == hashes[i]) {
+				try (FileOutputStream fos = new FileOutputStream(tmp)) {
+					fos.write(data, offset, length);
+					received.add(new FileInfo(fI.getName(), length, hashes[i]));
+				} catch (IOException e) {
+					System.err.println("Couldn't write " + fI.getName());
+					rest.add(fI);
+				}
+			} else
+				rest.add(fI);
+			offset += length;
+		}
+		ArrayList<FileInfo> installed = new ArrayList<>();
+		for (FileInfo fI : received) {
+			String path = fo.getFilePath(fI.getName());
+			try {
+				Files.move(new File(path + ".tmp").toPath(), new File(path).toPath(),
+						StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				installed.add(fI);
+			} catch (IOException e) {
+				System.err.println("Couldn't install " + fI.getName());
+				rest.add(fI);
+			}
+		}
+		fo.registerFiles(installed);
+		Metrics.filesReceived.add(installed.size());
+		Controller.getInstance().publishEvent("Received a bundle of " + installed.size() + " files");
+		return true;
+	}
+
+	/**
+	 * Sends the files of a bundle, the ones that are missing or that grew too
+	 * large for a bundle are marked so the other user requests them on their own
+	 * 
+	 * @param request The id of the request and the names of the files
+	 */
+	private void sendBundle(Message request) {
+		int id = request.getVarInt();
+		int count = request.getVarInt();
+		Message header = new Message(MessageType.BUNDLE).putVarInt(id).putVarInt(count);
+		byte[] data = new byte[Math.min(Settings.BUNDLE_SIZE, 1 << 16)];
+		int total = 0;
+		for (int i = 0; i < count; i++) {
+			File file = new File(fo.getFilePath(request.getString()));
+			byte[] content = null;
+			try {
+				if (file.isFile() && file.length() <= Settings.BUNDLE_MAX_FILE)
+					content = Files.readAllBytes(file.toPath());
+			} catch (IOException e) {
+				content = null;
+			}
+			if (content == null || content.length > Settings.BUNDLE_MAX_FILE) {
+				header.putVarLong(0);
+				continue;
+			}
+			header.putVarLong(content.length + 1).putLong(FileHasher.hash(content, 0, content.length));
+			if (data.length - total < content.length)
+				data = Arrays.copyOf(data, Math.max(2 * data.length, total + content.length));
+			System.arraycopy(content, 0, data, total, content.length);
+			total += content.length;
+		}
+		comSoc.send(header);
+		fiSoc.sendBytes(data, total);
+	}
+
+	/**
+	 * Receives the files with up to {@link Settings#PIPELINE_WINDOW} requests in
+	 * flight, so that the time of a round trip is not spent per file. The other
+	 * user answers the requests in order and every answer carries the id of its
+	 * request. Files are verified with the checksum that is calculated while they
+	 * are received, the ones that fail are repaired block by block after all the
+	 * answers have arrived, and requested again if they can't be repaired. When
+	 * the session has data streams the files are received over them first, and
+	 * only the ones that failed there are requested here.
+	 * 
+	 * @param files The information of the files on the other side
+	 */
+	private void receiveFiles(ArrayList<FileInfo> files) {
+		files = receiveBundles(files);
+		if (files == null)
+			return;
+		if (group != null && !files.isEmpty()) {
+			ArrayList<Connection> streams = group.getStreams(isMaster ? StreamGroup.UPLOAD : StreamGroup.DOWNLOAD);
+			files = new ParallelTransfer(fo, streams, compression, limiter, connection.getRemoteAddress())
+					.receive(files);
+		}
+		ArrayDeque<FileInfo> queue = new ArrayDeque<>(files);
+		HashMap<FileInfo, Integer> attempts = new HashMap<>();
+		while (!queue.isEmpty()) {
+			LinkedHashMap<FileInfo, BlockChecksum> damaged = new LinkedHashMap<>();
+			if (!transmitFiles(queue, damaged))
+				return;
+			for (Map.Entry<FileInfo, BlockChecksum> entry : damaged.entrySet()) {
+				FileInfo fI = entry.getKey();
+				if (repairFile(fI, entry.getValue().getBlockHashes())) {
+					Metrics.filesReceived.increment();
+					Controller.getInstance().publishEvent("Consistency check for " + fI.getName() + " passed");
+				} else if (attempts.merge(fI, 1, Integer::sum) < MAX_ATTEMPTS) {
+					Metrics.retries.increment();
+					queue.add(fI);
+				} else
+					Controller.getInstance().publishEvent("Consistency check for " + fI.getName() + " failed.");
+			}
+		}
+	}
+
+	/**
+	 * Requests all the files in the queue and receives them
+	 * 
+	 * @param queue   The files that will be requested
+	 * @param damaged Files that failed the consistency check with the checksums of
+	 *                their blocks
+	 * @return false if the connection is broken
+	 */
+	private boolean transmitFiles(ArrayDeque<FileInfo> queue, Map<FileInfo, BlockChecksum> damaged) {
+		ArrayDeque<FileInfo> pending = new ArrayDeque<>();
+		ArrayDeque<Long> requested = new ArrayDeque<>();
+		HashMap<Integer, BlockChecksum> resumed = new HashMap<>();
+		int firstPending = nextRequestId;
+		int pendingBytes = 0;
+		while (!queue.isEmpty() || !pending.isEmpty()) {
+			boolean sent = false;
+			while (!queue.isEmpty() && pending.size() < Settings.PIPELINE_WINDOW
+					&& (pending.isEmpty() || pendingBytes < MAX_PENDING_REQUEST_BYTES)) {
+				FileInfo fI = queue.poll();
+				Controller.getInstance().publishEvent("Transmit request for file " + fI.getName() + " sent.");
+				BlockChecksum prefix = FileSocket.resume(fo.getFilePath(fI.getName()), fI.getLength());
+				Message request = new Message(MessageType.TRANSMIT).putVarInt(nextRequestId).putString(fI.getName());
+				if (prefix != null) {
+					request.putVarLong(prefix.getLength()).putLong(prefix.getValue());
+					resumed.put(nextRequestId, prefix);
+				} else
+					request.putVarLong(0);
+				nextRequestId++;
+				comSoc.write(request);
+				pending.add(fI);
+				requested.add(System.nanoTime());
+				pendingBytes += requestSize(fI);
+				sent = true;
+			}
+			if (sent)
+				comSoc.flush();
+			Message response = comSoc.receive();
+			FileInfo fI = pending.poll();
+			long requestTime = requested.poll();
+			int id = firstPending++;
+			if (response == null || response.getType() != MessageType.FILE || response.getVarInt() != id) {
+				System.err.println("Couldn't match the answer for " + fI.getName());
+				connection.close();
+				return false;
+			}
+			pendingBytes -= requestSize(fI);
+			BlockChecksum prefix = resumed.remove(id);
+			long length = response.getVarLong() - 1;
+			if (length < 0) {
+				Controller.getInstance().publishEvent(fI.getName() + " is no longer on the other side.");
+				continue;
+			}
+			long offset = response.getVarLong();
+			if (offset == 0)
+				prefix = null;
+			else if (prefix == null || offset != prefix.getLength()) {
+				System.err.println("Couldn't match the offset for " + fI.getName());
+				connection.close();
+				return false;
+			} else
+				Controller.getInstance().publishEvent("Resuming " + fI.getName() + " after " + offset + " bytes");
+			BlockChecksum c = fiSoc.receiveFile(fo.getFilePath(fI.getName()), length, fI.getHash(), prefix, fo);
+			if (c == null) {
+				connection.close();
+				return false;
+			}
+			Metrics.fileLatencyMillis.record((System.nanoTime() - requestTime) / 1000000);
+			if (c.getValue() == fI.getHash()) {
+				Metrics.filesReceived.increment();
+				Controller.getInstance().publishEvent("Consistency check for " + fI.getName() + " passed");
+			} else
+				damaged.put(fI, c);
+		}
+		return true;
+	}
+
+	/**
+	 * Fetches the blocks of a received file that differ from the ones of the
+	 * other user
+	 * 
+	 * @param fI     The information of the file on the other side
+	 * @param blocks Hashes of the blocks of the received file
+	 * @return Whether the file is correct after the repair
+	 */
+	private boolean repairFile(FileInfo fI, long[] blocks) {
+		comSoc.send(new Message(MessageType.BLOCKSUMS).putString(fI.getName()).putVarInt(BlockChecksum.BLOCK_SIZE));
+		Message received = comSoc.receive();
+		if (received == null || received.getType() != MessageType.BLOCKSUMS) {
+			connection.close();
+			return false;
+		}
+		long length = received.getVarLong() - 1;
+		long[] remote = new long[received.getCount(8)];
+		for (int i = 0; i < remote.length; i++)
+			remote[i] = received.getLong();
+		if (remote.length != blocks.length
+				|| length != new File(fo.getFilePath(fI.getName()) + ".tmp").length())
+			return false;
+		ArrayList<Integer> differing = new ArrayList<>();
+		for (int i = 0; i < blocks.length; i++) {
+			if (blocks[i] != remote[i])
+				differing.add(i);
+		}
+		if (differing.isEmpty())
+			return false;
+		Controller.getInstance().publishEvent("Repairing " + differing.size() + " of " + blocks.length
+				+ " blocks of " + fI.getName());
+		Message request = new Message(MessageType.BLOCKGET).putString(fI.getName())
+				.putVarInt(BlockChecksum.BLOCK_SIZE).putVarLong(length);
+		putIndices(request, differing);
+		comSoc.send(request);
+		int[] indices = new int[differing.size()];
+		for (int i = 0; i < indices.length; i++)
+			indices[i] = differing.get(i);
+		return fiSoc.repairFile(fo.getFilePath(fI.getName()), length, BlockChecksum.BLOCK_SIZE, indices,
+				fI.getHash(), fo);
+	}
+
+	/**
+	 * Sends the hashes of the blocks of a file
+	 * 
+	 * @param request The name of the file and the size of the blocks
+	 */
+	private void sendBlockSums(Message request) {
+		String name = request.getString();
+		int blockSize = request.getVarInt();
+		File file = new File(fo.getFilePath(name));
+		Message message = new Message(MessageType.BLOCKSUMS);
+		try {
+			long length = file.length();
+			long[] blocks = blockSize > 0 && file.isFile() ? FileHasher.hashBlocks(file, blockSize) : new long[0];
+			message.putVarLong(file.isFile() ? length + 1 : 0).putVarInt(blocks.length);
+			for (long block : blocks)
+				message.putLong(block);
+		} catch (IOException e) {
+			System.err.println("Couldn't hash " + name);
+			message = new Message(MessageType.BLOCKSUMS).putVarLong(0).putVarInt(0);
+		}
+		comSoc.send(message);
+	}
+
+	/**
+	 * Sends the requested blocks of a file
+	 * 
+	 * @param request The name of the file, the size of the blocks, the length of
+	 *                the file and the indices of the blocks
+	 */
+	private void sendBlocks(Message request) {
+		String name = request.getString();
+		int blockSize = request.getVarInt();
+		long length = request.getVarLong();
+		int[] blocks = getIndices(request);
+		Controller.getInstance().publishEvent("Sending " + blocks.length + " blocks of " + name);
+		fiSoc.sendBlocks(fo.getFilePath(name), blockSize, blocks, length);
+	}
+
+	/**
+	 * Writes ascending indices as the gaps between them
+	 */
+	private static void putIndices(Message message, ArrayList<Integer> indices) {
+		message.putVarInt(indices.size());
+		int previous = -1;
+		for (int index : indices) {
+			message.putVarInt(index - previous - 1);
+			previous = index;
+		}
+	}
+
+	/**
+	 * Reads the indices that were written with putIndices
+	 */
+	private static int[] getIndices(Message message) {
+		int[] indices = new int[message.getCount(1)];
+		for (int i = 0, index = -1; i < indices.length; i++)
+			indices[i] = index += message.getVarInt() + 1;
+		return indices;
+	}
+
+	private static int requestSize(FileInfo fI) {
+		return fI.getName().length() + 10;
+	}
+
+	/**
+	 * Sends the file to the other user after a header with the id of the request,
+	 * the length of the file and the offset it continues from. The other user
+	 * may already have the beginning of the file from an attempt that broke off,
+	 * it is skipped if it matches the file.
+	 * 
+	 * @param request The id of the request, the name of the file and the length
+	 *                and the checksum of the beginning the other user has
+	 */
+	private void sendFile(Message request) {
+		int id = request.getVarInt();
+		String fileName = request.getString();
+		long offset = request.getVarLong();
+		File file = new File(fo.getFilePath(fileName));
+		long length = file.isFile() ? file.length() : -1;
+		try {
+			if (offset > 0 && (offset > length || FileHasher.hashPrefix(file, offset) != request.getLong()))
+				offset = 0;
+		} catch (IOException e) {
+			offset = 0;
+		}
+		comSoc.send(new Message(MessageType.FILE).putVarInt(id).putVarLong(length + 1)
+				.putVarLong(length < 0 ? 0 : offset));
+		if (length < 0)
+			return;
+		Controller.getInstance().publishEvent("Sending " + fileName);
+		fiSoc.sendFile(file.getPath(), length, offset);
+		Controller.getInstance().publishEvent(fileName + " sent.");
+	}
+
+	/**
+	 * Sends the changes of the file to the other user, preceded by whether the
+	 * file is available
+	 * 
+	 * @param signatures Signatures of the copy of the other user
+	 */
+	private void sendDelta(Signatures signatures) {
+		File file = new File(fo.getFilePath(signatures.getName()));
+		boolean available = file.isFile() && file.canRead();
+		comSoc.send(new Message(MessageType.DELTA).putVarInt(available ? 1 : 0));
+		if (!available) {
+			System.err.println("Couldn't find " + signatures.getName());
+			return;
+		}
+		Controller.getInstance().publishEvent("Sending changes of " + signatures.getName());
+		fiSoc.sendDelta(file.getPath(), signatures);
+	}
+
+	/**
+	 * Sends the chunks that make up a file
+	 * 
+	 * @param fileName The name of the file
+	 */
+	private void sendChunkList(String fileName) {
+		Message message = new Message(MessageType.CHUNKS);
+		FileInfo fI = fo.getFileInfo(fileName);
+		if (fI != null) {
+			try {
+				Chunks chunks = fo.getChunkStore().getChunks(fI);
+				message.putVarInt(chunks.size());
+				for (int i = 0; i < chunks.size(); i++)
+					message.putLong(chunks.getHash(i)).putVarInt(chunks.getLength(i));
+			} catch (IOException e) {
+				System.err.println("Couldn't split " + fileName);
+			}
+		}
+		comSoc.send(message);
+	}
+
+	/**
+	 * Sends the requested chunks of a file. The chunks are preceded by whether
+	 * they are available, they aren't if the file disappeared, changed since the
+	 * other user got its chunks or couldn't be split.
+	 * 
+	 * @param request The name and hash of the file and the indices of the chunks
+	 */
+	private void sendChunks(Message request) {
+		String name = request.getString();
+		long hash = request.getLong();
+		int[] indices = getIndices(request);
+		FileInfo fI = fo.getFileInfo(name);
+		Chunks chunks = null;
+		if (fI == null || fI.getHash() != hash)
+			System.err.println("Couldn't find " + name);
+		else {
+			try {
+				chunks = fo.getChunkStore().getChunks(fI);
+			} catch (IOException e) {
+				System.err.println("Couldn't split " + name);
+			}
+		}
+		comSoc.send(new Message(MessageType.CHUNKGET).putVarInt(chunks != null ? 1 : 0));
+		if (chunks == null)
+			return;
+		Controller.getInstance().publishEvent("Sending " + indices.length + " chunks of " + name);
+		fiSoc.sendChunks(fo.getFilePath(name), chunks, indices);
+	}
+
+	/**
+	 * Receives a file chunk by chunk, the chunks that exist in any local file are
+	 * copied from there instead of being sent
+	 * 
+	 * @param fI The information of the file on the other side
+	 * @return Whether the file was received and passed the consistency check
+	 */
+	private boolean receiveChunks(FileInfo fI) {
+		comSoc.send(new Message(MessageType.CHUNKS).putString(fI.getName()));
+		Message received = comSoc.receive();
+		if (received == null || !received.hasRemaining())
+			return false;
+		long[] hashes = new long[received.getCount(9)];
+		int[] lengths = new int[hashes.length];
+		for (int i = 0; i < hashes.length; i++) {
+			hashes[i] = received.getLong();
+			lengths[i] = received.getVarInt();
+		}
+		Chunks chunks = new Chunks(fI.getName(), hashes, lengths);
+		ChunkStore store = fo.getChunkStore();
+		Location[] local = new Location[chunks.size()];
+		ArrayList<Integer> missing = new ArrayList<>();
+		for (int i = 0; i < chunks.size(); i++) {
+			local[i] = store.find(chunks.getHash(i));
+			if (local[i] == null)
+				missing.add(i);
+		}
+		if (group != null && missing.size() == chunks.size())
+			return false; // Nothing to reuse, the data streams receive the file faster
+		Message request = new Message(MessageType.CHUNKGET).putString(fI.getName()).putLong(fI.getHash());
+		putIndices(request, missing);
+		comSoc.send(request);
+		Message response = comSoc.receive();
+		if (response == null || response.getType() != MessageType.CHUNKGET || response.getVarInt() == 0)
+			return false;
+		long reused = fiSoc.receiveChunks(fo.getFilePath(fI.getName()), chunks, local, fI.getHash(), fo);
+		if (reused < 0)
+			return false;
+		chunks.setFileHash(fI.getHash());
+		store.add(chunks);
+		dedupReused += reused;
+		dedupTotal += fI.getLength();
+		Controller.getInstance().publishEvent(reused + " of " + fI.getLength() + " bytes of " + fI.getName()
+				+ " were deduplicated from local chunks.");
+		return true;
+	}
+
+	/**
+	 * Requests the changes of a file that exists with different content and
+	 * rebuilds it from the local copy
+	 * 
+	 * @param fI The information of the file on the other side
+	 * @return Whether the file was received and passed the consistency check
+	 */
+	private boolean receiveDelta(FileInfo fI) {
+		Signatures signatures;
+		try {
+			signatures = DeltaEngine.computeSignatures(fI.getName(), new File(fo.getFilePath(fI.getName())));
+		} catch (IOException e) {
+			return false;
+		}
+		Controller.getInstance().publishEvent("Delta request for file " + fI.getName() + " sent.");
+		Message request = new Message(MessageType.DELTA);
+		signatures.writeTo(request);
+		comSoc.send(request);
+		Message response = comSoc.receive();
+		if (response == null || response.getType() != MessageType.DELTA || response.getVarInt() == 0)
+			return false;
+		long reused = fiSoc.receiveDelta(fo.getFilePath(fI.getName()), signatures, fI.getHash(), fo);
+		if (reused < 0)
+			return false;
+		Controller.getInstance().publishEvent(reused + " of " + fI.getLength() + " bytes of " + fI.getName()
+				+ " were reused from the local copy.");
+		return true;
+	}
+
+	/**
+	 * Updates the list of files in the system for changes on folder
+	 */
+	private void updateFileList() {
+		fo.update();
+	}
+
+	/**
+	 * Detects the files that have to be requested from the other user. A file
+	 * whose content is already here under another name is copied locally instead.
+	 * 
+	 * @param list Files of the other user that differ from the local ones
+	 * @return Files that will be requested from the other user
+	 */
+	private ArrayList<FileInfo> detectFilesToGet(ArrayList<FileInfo> list) {
+		ArrayList<FileInfo> tmp = new ArrayList<>();
+		for (FileInfo fI : list) {
+			FileInfo[] copies = fo.getFilesWithContent(fI.getHash());
+			if (copies.length > 0 && fo.copyFile(copies[0].getName(), fI)) {
+				Controller.getInstance().publishEvent("File " + fI.getName() + " copied from " + copies[0].getName());
+				continue;
+			}
+			tmp.add(fI);
+		}
+		return tmp;
+	}
+
+	/**
+	 * Opens the data streams again when a synchronization starts after the
+	 * session was idle, the master tells the follower the id of the session the
+	 * new streams join
+	 */
+	private void reopenStreams() {
+		if (streamCount <= 1)
+			return;
+		group = StreamGroup.open(streamCount);
+		comSoc.send(new Message(MessageType.JOIN).putLong(group.getId()));
+		openStreams(streamCount, 0);
+	}
+
+	/**
+	 * Ends the streams over which this side requests, the other side closes them
+	 * when it reads the CLOSE and this side does the same for the streams it
+	 * serves
+	 */
+	private void closeStreams() {
+		if (group == null)
+			return;
+		for (Connection stream : group.getStreams(isMaster ? StreamGroup.UPLOAD : StreamGroup.DOWNLOAD)) {
+			if (!stream.isClosed())
+				stream.createCommandSocket().send(MessageType.CLOSE);
+			stream.close();
+		}
+		group = null;
+	}
+
+	/**
+	 * Closes the protocol
+	 */
+	private void close() {
+		comSoc.send(MessageType.CLOSE);
+	}
+
+}
@@ -0,0 +1,91 @@
+package main;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Position of the follower in the change journal of the master. It is stored
+ * in the folder and replaced atomically, so after a restart the follower still
+ * asks only for the changes it did not apply yet.
+ */
+public class SyncState {
+
+	public static final String FILE_NAME = ".filesync.state";
+	private static final int MAGIC = 0x46535354;
+
+	private File file;
+	private long journalId;
+	private long sequence = -1;
+
+	/**
+	 * Reads the state that is stored in the given folder, a follower without a
+	 * state has not synchronized with the master yet
+	 *
+	 * @param folder The folder that is synchronized
+	 */
+	public SyncState(File folder) {
+		file = new File(folder, FILE_NAME);
+		if (!file.exists())
+			return;
+		try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+			if (in.readInt() == MAGIC) {
+				long id = in.readLong();
+				long seq = in.readLong();
+				if (in.readLong() == (id ^ seq)) {
+					journalId = id;
+					sequence = seq;
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("Couldn't read sync state, the whole folder will be compared");
+		}
+	}
+
+	public synchronized long getJournalId() {
+		return journalId;
+	}
+
+	/**
+	 * Gets the last sequence number that was applied
+	 *
+	 * @return The sequence number or -1 if nothing was applied yet
+	 */
+	public synchronized long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Stores the position after a synchronization completed
+	 *
+	 * @param journalId Id of the journal of the master
+	 * @param sequence  The last sequence number that was applied
+	 */
+	public synchronized void save(long journalId, long sequence) {
+		this.journalId = journalId;
+		this.sequence = sequence;
+		File tmp = new File(file.getPath() + ".new");
+		try {
+			try (FileOutputStream fos = new FileOutputStream(tmp);
+					DataOutputStream out = new DataOutputStream(fos)) {
+				out.writeInt(MAGIC);
+				out.writeLong(journalId);
+				out.writeLong(sequence);
+				out.writeLong(journalId ^ sequence);
+				out.flush();
+				fos.getFD().sync();
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			System.err.println("Couldn't write sync state");
+			tmp.delete();
+		}
+	}
+
+}
@@ -0,0 +1,14 @@
+package main;
+
+import java.io.Closeable;
+
+/**
+ * The master or follower side of a folder, whose sessions keep using the
+ * folder until they have ended.
+ */
+public interface Synchronizer extends Runnable, Closeable {
+	/**
+	 * Waits until every session started since it was closed has ended.
+	 */
+	public void awaitTermination() throws InterruptedException;
+}
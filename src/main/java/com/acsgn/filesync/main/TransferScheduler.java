@@ -0,0 +1,156 @@
+package main;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import socket.RateLimiter;
+
+/**
+ * Decides in which order the files of a session are received and how fast file
+ * content may go over the connections.
+ * <p>
+ * The order is a comma separated list of policies in
+ * {@link Settings#TRANSFER_ORDER}, the later ones break the ties of the earlier
+ * ones, and files that are still tied are received smallest first. The
+ * policies are {@code directory}, which takes the directories with the highest
+ * priority in {@link Settings#TRANSFER_PRIORITY} first, {@code recent}, which
+ * takes the files that changed last on the other side first, and
+ * {@code smallest}. Another order can be set with {@link #setOrder}.
+ * <p>
+ * The rate is limited by {@link Settings#RATE_LIMIT} for all the sessions
+ * together, and by the property {@code filesync.rate.<address>} for the
+ * sessions with one follower or master, see {@link RateLimiter} for the format.
+ */
+public class TransferScheduler {
+
+	private static final RateLimiter global = limiter(Settings.RATE_LIMIT, null);
+	private static final ConcurrentHashMap<String, RateLimiter> peers = new ConcurrentHashMap<>();
+
+	private Comparator<FileInfo> order;
+	private HashMap<String, Integer> recency = new HashMap<>();
+	private int changes;
+
+	/**
+	 * Creates a scheduler with the order of the settings
+	 */
+	public TransferScheduler() {
+		order = smallestFirst();
+		String[] policies = Settings.TRANSFER_ORDER.split(",");
+		for (int i = policies.length - 1; i >= 0; i--) {
+			Comparator<FileInfo> policy = policy(policies[i].trim());
+			if (policy != null)
+				order = policy.thenComparing(order);
+		}
+	}
+
+	/**
+	 * Gets the limiter for the sessions with a user
+	 *
+	 * @param peer Address of the other user
+	 * @return The limiter or null if the rate is not limited
+	 */
+	public static RateLimiter getLimiter(String peer) {
+		RateLimiter limiter = peers.computeIfAbsent(peer, p -> {
+			String rules = System.getProperty("filesync.rate." + p);
+			return rules == null ? global : limiter(rules, global);
+		});
+		return limiter.isLimited() ? limiter : null;
+	}
+
+	public void setOrder(Comparator<FileInfo> order) {
+		this.order = order;
+	}
+
+	/**
+	 * Notes that a file changed on the other side, files that are noted later
+	 * count as more recent
+	 *
+	 * @param name Name of the file
+	 */
+	public void changed(String name) {
+		recency.put(name, ++changes);
+	}
+
+	/**
+	 * Sorts the files in the order they will be received
+	 *
+	 * @param files The files that will be received
+	 * @return The sorted files
+	 */
+	public ArrayList<FileInfo> order(Collection<FileInfo> files) {
+		ArrayList<FileInfo> sorted = new ArrayList<>(files);
+		sorted.sort(order);
+		return sorted;
+	}
+
+	public static Comparator<FileInfo> smallestFirst() {
+		return Comparator.comparingLong(FileInfo::getLength);
+	}
+
+	/**
+	 * Orders the files that changed last on the other side first, files whose
+	 * change is unknown come last
+	 */
+	public Comparator<FileInfo> recentFirst() {
+		return Comparator.comparingInt(fI -> -recency.getOrDefault(fI.getName(), 0));
+	}
+
+	/**
+	 * Orders the files by the priority of the deepest directory they are in
+	 *
+	 * @param priorities Comma separated directories with their priorities, e.g.
+	 *                   {@code docs=10,media/raw=-5}. Files in no listed
+	 *                   directory have the priority 0.
+	 * @return Higher priorities first
+	 */
+	public static Comparator<FileInfo> byDirectory(String priorities) {
+		TreeMap<String, Integer> directories = new TreeMap<>();
+		for (String entry : priorities.split(",")) {
+			int equals = entry.indexOf('=');
+			if (equals < 0)
+				continue;
+			String directory = entry.substring(0, equals).trim().replace('/', File.separatorChar);
+			try {
+				directories.put(directory + File.separator, Integer.parseInt(entry.substring(equals + 1).trim()));
+			} catch (NumberFormatException e) {
+				System.err.println("Couldn't parse the priority of " + directory);
+			}
+		}
+		return Comparator.comparingInt(fI -> {
+			String name = fI.getName();
+			String directory = directories.floorKey(name);
+			while (directory != null && !name.startsWith(directory))
+				directory = directories.lowerKey(directory);
+			return directory == null ? 0 : -directories.get(directory);
+		});
+	}
+
+	private Comparator<FileInfo> policy(String name) {
+		switch (name) {
+		case "smallest":
+			return smallestFirst();
+		case "recent":
+			return recentFirst();
+		case "directory":
+			return byDirectory(Settings.TRANSFER_PRIORITY);
+		default:
+			System.err.println("Couldn't find the transfer order " + name);
+			return null;
+		}
+	}
+
+	private static RateLimiter limiter(String rules, RateLimiter parent) {
+		try {
+			return new RateLimiter(rules, parent);
+		} catch (IllegalArgumentException e) {
+			System.err.println("Couldn't parse the rate " + rules + ", it is not limited");
+			return new RateLimiter("0", parent);
+		}
+	}
+
+}
@@ -0,0 +1,86 @@
+package socket;
+
+import java.util.Arrays;
+import java.util.zip.Checksum;
+
+import main.FileHasher;
+
+/**
+ * Checksum of a received file that also remembers the hash of every block, so
+ * that a file that fails the consistency check can be repaired by fetching
+ * only the blocks that differ from the ones of the sender.
+ */
+public class BlockChecksum implements Checksum {
+
+	/**
+	 * Size of the blocks that are verified separately
+	 */
+	public static final int BLOCK_SIZE = 1 << 20;
+
+	private Checksum whole = FileHasher.newChecksum();
+	private Checksum block = FileHasher.newChecksum();
+	private long inBlock;
+	private long[] blocks = new long[16];
+	private int count;
+
+	@Override
+	public void update(int b) {
+		update(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void update(byte[] b, int off, int len) {
+		whole.update(b, off, len);
+		while (len > 0) {
+			int size = (int) Math.min(len, BLOCK_SIZE - inBlock);
+			block.update(b, off, size);
+			inBlock += size;
+			off += size;
+			len -= size;
+			if (inBlock == BLOCK_SIZE) {
+				if (count == blocks.length)
+					blocks = Arrays.copyOf(blocks, 2 * count);
+				blocks[count++] = block.getValue();
+				block.reset();
+				inBlock = 0;
+			}
+		}
+	}
+
+	/**
+	 * Gets the hash of the whole content
+	 */
+	@Override
+	public long getValue() {
+		return whole.getValue();
+	}
+
+	/**
+	 * Gets the number of bytes that were checksummed
+	 */
+	public long getLength() {
+		return (long) count * BLOCK_SIZE + inBlock;
+	}
+
+	@Override
+	public void reset() {
+		whole.reset();
+		block.reset();
+		inBlock = 0;
+		count = 0;
+	}
+
+	/**
+	 * Gets the hashes of the blocks, they are the same values that
+	 * {@link FileHasher#hashBlocks} gives for the same content
+	 *
+	 * @return Hash of every block, the last one may be shorter
+	 */
+	public long[] getBlockHashes() {
+		long[] hashes = Arrays.copyOf(blocks, count + (inBlock > 0 ? 1 : 0));
+		if (inBlock > 0)
+			hashes[count] = block.getValue();
+		return hashes;
+	}
+
+}
@@ -0,0 +1,203 @@
+package socket;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+
+/**
+ * Writes file content as a stream of LZ4 compressed or stored blocks. A block
+ * is compressed while the previous one is being written to the socket by a
+ * writer thread, so compression does not stall the socket. Blocks that don't
+ * shrink enough are sent stored, and after a run of such blocks only every
+ * {@value #SAMPLE_INTERVAL}th block is tried again. Files with extensions of
+ * already compressed formats are never compressed.
+ */
+class BlockCompressor {
+
+	static final int BLOCK_SIZE = 1 << 16;
+	static final byte END = 0;
+	static final byte STORED = 1;
+	static final byte LZ4 = 2;
+
+	private static final double MAX_RATIO = 0.9;
+	private static final int INCOMPRESSIBLE_RUN = 4;
+	private static final int SAMPLE_INTERVAL = 16;
+	private static final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+	private static final HashSet<String> compressedExtensions = new HashSet<>(Arrays.asList("7z", "avi", "bz2",
+			"docx", "flac", "gif", "gz", "heic", "jar", "jpeg", "jpg", "lz4", "m4a", "mkv", "mov", "mp3", "mp4",
+			"ogg", "png", "pptx", "rar", "tgz", "webm", "webp", "xlsx", "xz", "zip", "zst"));
+	private static final ExecutorService writers = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "BlockWriter");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private DataOutputStream out;
+	private boolean compressible;
+	private Block[] blocks;
+	private int current;
+	private Future<?> pending;
+	private int incompressible;
+	private int sinceSample;
+
+	/**
+	 * Creates a compressor for one file
+	 *
+	 * @param os   Stream that the blocks are written to
+	 * @param path Path of the file, its extension decides if compression is tried
+	 */
+	BlockCompressor(OutputStream os, String path) {
+		out = new DataOutputStream(new BufferedOutputStream(os, compressor.maxCompressedLength(BLOCK_SIZE) + 16));
+		compressible = isCompressible(path);
+		blocks = new Block[] { new Block(), new Block() };
+	}
+
+	/**
+	 * Sends a range of a file
+	 *
+	 * @param fc       The file
+	 * @param position Where the range starts
+	 * @param length   Length of the range
+	 * @throws IOException
+	 */
+	void write(FileChannel fc, long position, long length) throws IOException {
+		long end = position + length;
+		while (position < end) {
+			Block block = blocks[current];
+			current = 1 - current;
+			ByteBuffer raw = ByteBuffer.wrap(block.raw, 0, (int) Math.min(BLOCK_SIZE, end - position));
+			while (raw.hasRemaining()) {
+				int bytesRead = fc.read(raw, position + raw.position());
+				if (bytesRead == -1)
+					throw new IOException("File is shorter than expected");
+			}
+			block.rawLength = raw.limit();
+			position += block.rawLength;
+			send(block);
+		}
+	}
+
+	/**
+	 * Sends content that is in the memory
+	 *
+	 * @param data   The content
+	 * @param offset Where the content starts in the array
+	 * @param length Length of the content
+	 * @throws IOException
+	 */
+	void write(byte[] data, int offset, int length) throws IOException {
+		int end = offset + length;
+		while (offset < end) {
+			Block block = blocks[current];
+			current = 1 - current;
+			block.rawLength = Math.min(BLOCK_SIZE, end - offset);
+			System.arraycopy(data, offset, block.raw, 0, block.rawLength);
+			offset += block.rawLength;
+			send(block);
+		}
+	}
+
+	/**
+	 * Compresses a block and hands it to the writer once the previous block is
+	 * written
+	 */
+	private void send(Block block) throws IOException {
+		compress(block);
+		await();
+		pending = writers.submit(() -> {
+			block.writeTo(out);
+			return null;
+		});
+	}
+
+	/**
+	 * Waits for the last block and writes the end of the stream
+	 *
+	 * @throws IOException
+	 */
+	void finish() throws IOException {
+		await();
+		out.writeByte(END);
+		out.flush();
+	}
+
+	private void compress(Block block) {
+		block.compressedLength = -1;
+		if (!compressible)
+			return;
+		if (incompressible >= INCOMPRESSIBLE_RUN && ++sinceSample < SAMPLE_INTERVAL)
+			return;
+		sinceSample = 0;
+		int length = compressor.compress(block.raw, 0, block.rawLength, block.compressed, 0,
+				block.compressed.length);
+		if (length <= block.rawLength * MAX_RATIO) {
+			block.compressedLength = length;
+			incompressible = 0;
+		} else
+			incompressible++;
+	}
+
+	private void await() throws IOException {
+		if (pending == null)
+			return;
+		try {
+			pending.get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		} finally {
+			pending = null;
+		}
+	}
+
+	/**
+	 * Checks if the content of a file might be compressible by its extension
+	 *
+	 * @param path Path of the file
+	 * @return false for the formats that are already compressed
+	 */
+	static boolean isCompressible(String path) {
+		int dot = path.lastIndexOf('.');
+		return dot == -1 || !compressedExtensions.contains(path.substring(dot + 1).toLowerCase(Locale.ROOT));
+	}
+
+	private static class Block {
+
+		private byte[] raw = new byte[BLOCK_SIZE];
+		private byte[] compressed = new byte[compressor.maxCompressedLength(BLOCK_SIZE)];
+		private int rawLength;
+		private int compressedLength;
+
+		private void writeTo(DataOutputStream out) throws IOException {
+			if (compressedLength < 0) {
+				out.writeByte(STORED);
+				out.writeInt(rawLength);
+				out.write(raw, 0, rawLength);
+			} else {
+				out.writeByte(LZ4);
+				out.writeInt(rawLength);
+				out.writeInt(compressedLength);
+				out.write(compressed, 0, compressedLength);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,92 @@
+package socket;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+/**
+ * Reads the block stream written by {@link BlockCompressor} and returns the
+ * original content. The stream ends at the end block of the sender.
+ */
+class BlockDecompressor extends InputStream {
+
+	private static final LZ4SafeDecompressor decompressor = LZ4Factory.fastestInstance().safeDecompressor();
+
+	private DataInputStream in;
+	private byte[] block = new byte[BlockCompressor.BLOCK_SIZE];
+	private byte[] compressed = new byte[BlockCompressor.BLOCK_SIZE];
+	private int position;
+	private int length;
+	private boolean end;
+
+	BlockDecompressor(InputStream is) {
+		in = new DataInputStream(is);
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!fill())
+			return -1;
+		return block[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (!fill())
+			return -1;
+		int size = Math.min(len, length - position);
+		System.arraycopy(block, position, b, off, size);
+		position += size;
+		return size;
+	}
+
+	/**
+	 * Reads the rest of the stream up to the end block
+	 *
+	 * @throws IOException
+	 */
+	void skipToEnd() throws IOException {
+		while (fill())
+			position = length;
+	}
+
+	private boolean fill() throws IOException {
+		while (position == length) {
+			if (end)
+				return false;
+			byte type = in.readByte();
+			if (type == BlockCompressor.END) {
+				end = true;
+				return false;
+			}
+			int rawLength = in.readInt();
+			if (rawLength < 0 || rawLength > block.length)
+				throw new IOException("Invalid block length " + rawLength);
+			if (type == BlockCompressor.STORED)
+				in.readFully(block, 0, rawLength);
+			else if (type == BlockCompressor.LZ4) {
+				int compressedLength = in.readInt();
+				if (compressedLength < 0 || compressedLength > block.length)
+					throw new IOException("Invalid block length " + compressedLength);
+				in.readFully(compressed, 0, compressedLength);
+				try {
+					if (decompressor.decompress(compressed, 0, compressedLength, block, 0) != rawLength)
+						throw new IOException("Corrupted block");
+				} catch (LZ4Exception e) {
+					throw new IOException("Corrupted block", e);
+				}
+			} else
+				throw new IOException("Unknown block type " + type);
+			position = 0;
+			length = rawLength;
+		}
+		return true;
+	}
+
+}
@@ -1,26 +1,29 @@
-package socket;
-
-import java.io.IOException;
-import java.net.Socket;
-
-public class Client {
-
-	private String serverAddress;
-	private int port;
-
-	public Client(String serverAddress, int port) {
-		this.serverAddress = serverAddress;
-		this.port = port;
-	}
-
-	/**
-	 * Establishes a socket connection to the server that is identified by the
-	 * serverAddress
-	 * 
-	 * @throws IOException
-	 */
-	public Connection connect() throws IOException {
-		return new Connection(new Socket(serverAddress, port));
-	}
-
+package socket;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+
+public class Client {
+
+	private String serverAddress;
+	private int port;
+
+	public Client(String serverAddress, int port) {
+		this.serverAddress = serverAddress;
+		this.port = port;
+	}
+
+	/**
+	 * Establishes a socket connection to the server that is identified by the
+	 * serverAddress. The socket is opened through a channel so that files can be
+	 * sent without copying them into the memory.
+	 * 
+	 * @throws IOException
+	 */
+	public Connection connect() throws IOException {
+		SocketChannel channel = SocketChannel.open(new InetSocketAddress(serverAddress, port));
+		return new Connection(channel.socket());
+	}
+
 }
\ No newline at end of file
@@ -1,53 +1,101 @@
-package socket;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.Socket;
-
-public class CommandSocket {
-
-	private BufferedReader is;
-	private PrintWriter os;
-
-	/**
-	 * Creates a commandSocket object for file operations
-	 * 
-	 * @param socket A connection socket
-	 * @param inputStream Input stream for command operations
-	 * @param outputStream Output stream for command operations
-	 */
-	public CommandSocket(Socket socket) {
-		try {
-			this.is = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-			this.os = new PrintWriter(socket.getOutputStream(), true);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-	}
-
-	/**
-	 * Sends commands to the client.
-	 * 
-	 * @param command Command that will be sent
-	 */
-	public void sendCommand(String command) {
-		os.println(command);
-	}
-
-	/**
-	 * Receives command from the client.
-	 * 
-	 * @return Command
-	 */
-	public String receiveCommand() {
-		try {
-			return is.readLine();
-		} catch (IOException e) {
-			e.printStackTrace();
-			return null;
-		}
-	}
-
-}
+package socket;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Sends and receives the messages of the synchronization protocol as frames.
+ * Every frame is the length of the payload as an int, the id of the message
+ * type and the payload.
+ */
+public class CommandSocket {
+
+	private static final int MAX_FRAME = 1 << 28;
+
+	private DataInputStream is;
+	private DataOutputStream os;
+
+	/**
+	 * Creates a commandSocket object for file operations
+	 *
+	 * @param inputStream  Input stream for command operations
+	 * @param outputStream Output stream for command operations
+	 */
+	public CommandSocket(InputStream inputStream, OutputStream outputStream) {
+		this.is = new DataInputStream(inputStream);
+		this.os = new DataOutputStream(outputStream);
+	}
+
+	/**
+	 * Sends a message to the other user.
+	 *
+	 * @param message Message that will be sent
+	 */
+	public void send(Message message) {
+		write(message);
+		flush();
+	}
+
+	/**
+	 * Buffers a message without sending it, so that several messages can be sent
+	 * together with {@link #flush()}.
+	 *
+	 * @param message Message that will be sent
+	 */
+	public void write(Message message) {
+		try {
+			os.writeInt(message.getLength());
+			os.writeByte(message.getType().getId());
+			os.write(message.getData(), 0, message.getLength());
+		} catch (IOException e) {
+			System.err.println("Couldn't send " + message.getType());
+		}
+	}
+
+	/**
+	 * Sends the buffered messages.
+	 */
+	public void flush() {
+		try {
+			os.flush();
+		} catch (IOException e) {
+			System.err.println("Couldn't send messages");
+		}
+	}
+
+	/**
+	 * Sends a message without payload to the other user.
+	 *
+	 * @param type Type of the message
+	 */
+	public void send(MessageType type) {
+		send(new Message(type));
+	}
+
+	/**
+	 * Receives a message from the other user.
+	 *
+	 * @return Message or null if the connection is closed or broken
+	 */
+	public Message receive() {
+		try {
+			int length = is.readInt();
+			if (length < 0 || length > MAX_FRAME)
+				throw new IOException("Invalid frame length " + length);
+			int id = is.readUnsignedByte();
+			MessageType type = MessageType.of(id);
+			if (type == null)
+				throw new IOException("Unknown message type " + id);
+			byte[] data = new byte[length];
+			is.readFully(data);
+			return new Message(type, data, length);
+		} catch (IOException e) {
+			System.err.println("Couldn't receive message");
+			return null;
+		}
+	}
+
+}
@@ -1,30 +1,146 @@
-package socket;
-
-import java.io.IOException;
-import java.net.Socket;
-
-public class Connection {
-
-	private Socket socket;
-
-	public Connection(Socket socket){
-		this.socket = socket;
-	}
-
-	public CommandSocket createCommandSocket() {
-		return new CommandSocket(socket);
-	}
-
-	public FileSocket createFileSocket() {
-		return new FileSocket(socket);
-	}
-
-	public void close() {
-		try {
-			socket.close();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-	}
-
-}
+package socket;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SocketChannel;
+
+public class Connection {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private Socket socket;
+	private InputStream is;
+	private OutputStream os;
+	private Message greeting;
+
+	/**
+	 * Creates a connection, the command socket and the file socket read through
+	 * the same buffer so that neither of them can read ahead into the data of the
+	 * other. Writes are buffered by the sockets, so Nagle's algorithm is turned off
+	 * to not delay a file behind its header.
+	 *
+	 * @param socket A connected socket
+	 */
+	public Connection(Socket socket){
+		this.socket = socket;
+		try {
+			socket.setTcpNoDelay(true);
+			is = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+			os = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Creates a connection whose first message was already read
+	 *
+	 * @param socket   A connected socket
+	 * @param greeting The first message the other user sent
+	 */
+	public Connection(Socket socket, Message greeting) {
+		this(socket);
+		this.greeting = greeting;
+	}
+
+	/**
+	 * Opens another connection to the same address, used for the extra data
+	 * streams of a session
+	 * 
+	 * @return The new connection
+	 * @throws IOException
+	 */
+	public Connection openSibling() throws IOException {
+		SocketChannel channel = SocketChannel.open(socket.getRemoteSocketAddress());
+		return new Connection(channel.socket());
+	}
+
+	/**
+	 * Gets the address of the other user
+	 * 
+	 * @return The IP address of the other end of the connection
+	 */
+	public String getRemoteAddress() {
+		return socket.getInetAddress().getHostAddress();
+	}
+
+	/**
+	 * Gets the first message of the other user if the server read it before
+	 * handing the connection over
+	 * 
+	 * @return The message or null if it is still in the socket
+	 */
+	public Message getGreeting() {
+		return greeting;
+	}
+
+	/**
+	 * Waits until the other user sends something. The connection is read by the
+	 * same thread that writes to it, since a socket of a channel can't be written
+	 * while another thread is blocked reading it, so an idle session waits in
+	 * short steps and does its own work in between.
+	 * 
+	 * @param timeout Milliseconds to wait at most
+	 * @return False if nothing arrived in time, true if a message can be read or
+	 *         the connection is closed or broken
+	 */
+	public boolean await(int timeout) {
+		try {
+			if (is.available() > 0)
+				return true;
+			socket.setSoTimeout(timeout);
+			is.mark(1);
+			is.read();
+			is.reset();
+			return true;
+		} catch (SocketTimeoutException e) {
+			return false;
+		} catch (IOException e) {
+			return true;
+		} finally {
+			try {
+				socket.setSoTimeout(0);
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	/**
+	 * Gets whether the connection can wait on a selector, see {@link IdleSelector}
+	 * 
+	 * @return Whether the socket belongs to a channel
+	 */
+	public boolean isSelectable() {
+		return socket.getChannel() != null;
+	}
+
+	SocketChannel getChannel() {
+		return socket.getChannel();
+	}
+
+	public CommandSocket createCommandSocket() {
+		return new CommandSocket(is, os);
+	}
+
+	public FileSocket createFileSocket() {
+		return new FileSocket(socket, is);
+	}
+
+	public boolean isClosed() {
+		return socket.isClosed();
+	}
+
+	public void close() {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+}
@@ -0,0 +1,383 @@
+package socket;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.StreamCorruptedException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.Checksum;
+
+import net.jpountz.xxhash.XXHash64;
+import net.jpountz.xxhash.XXHashFactory;
+
+/**
+ * rsync style delta encoding. The receiver describes the copy of a file it
+ * already has with a weak rolling checksum and a strong hash per block. The
+ * sender slides a window over its version of the file and replies with
+ * instructions to copy the blocks the receiver already has and the literal
+ * bytes it does not have.
+ */
+public class DeltaEngine {
+
+	private static final int MIN_BLOCK_SIZE = 2048;
+	private static final int MAX_BLOCK_SIZE = 1 << 17;
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final int MAX_LITERAL = 1 << 16;
+	private static final long seed = 9896;
+	private static final XXHash64 strongHash = XXHashFactory.fastestInstance().hash64();
+
+	private static final byte END = 0;
+	private static final byte COPY = 1;
+	private static final byte DATA = 2;
+	private static final byte ABORT = 3;
+
+	private DeltaEngine() {
+	}
+
+	/**
+	 * Calculates the signatures of the blocks of a file
+	 *
+	 * @param name  The name of the file that is sent to the other user
+	 * @param basis The file that will be used as the basis of the delta
+	 * @return Signatures of all the blocks of the file
+	 * @throws IOException
+	 */
+	public static Signatures computeSignatures(String name, File basis) throws IOException {
+		long length = basis.length();
+		int blockSize = (int) Math.min(MAX_BLOCK_SIZE, Math.max(MIN_BLOCK_SIZE, (long) Math.sqrt(length) & ~7));
+		int blocks = (int) ((length + blockSize - 1) / blockSize);
+		int[] weak = new int[blocks];
+		long[] strong = new long[blocks];
+		byte[] block = new byte[blockSize];
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(basis)))) {
+			for (int i = 0; i < blocks; i++) {
+				int size = (int) Math.min(blockSize, length - (long) i * blockSize);
+				in.readFully(block, 0, size);
+				weak[i] = weakChecksum(block, 0, size);
+				strong[i] = strongHash.hash(block, 0, size, seed);
+			}
+		}
+		return new Signatures(name, length, blockSize, weak, strong);
+	}
+
+	/**
+	 * Writes the instructions that turn the basis of the receiver into the source.
+	 * If the source can't be read the instructions end with an abort, so the
+	 * receiver never waits for more.
+	 *
+	 * @param source     The file that the receiver wants
+	 * @param signatures Signatures of the basis of the receiver
+	 * @param os         Stream that the instructions are written to
+	 * @return Number of bytes that were sent as literals
+	 * @throws IOException
+	 */
+	public static long sendDelta(File source, Signatures signatures, OutputStream os) throws IOException {
+		DataOutputStream out = new DataOutputStream(os);
+		int blockSize = signatures.blockSize;
+		HashMap<Integer, int[]> blocks = signatures.index();
+		byte[] buf = new byte[Math.max(BUFFER_SIZE, 4 * blockSize)];
+		long literalBytes = 0;
+		try (InputStream in = new FileInputStream(source)) {
+			int end = fill(in, buf, 0);
+			boolean eof = end < buf.length;
+			int pos = 0;
+			int literal = 0;
+			int copyStart = -1;
+			int copyCount = 0;
+			int windowLength = Math.min(blockSize, end);
+			int checksum = weakChecksum(buf, 0, windowLength);
+			while (true) {
+				if (!eof && end - pos < blockSize) {
+					literalBytes += writeLiteral(out, buf, literal, pos);
+					System.arraycopy(buf, pos, buf, 0, end - pos);
+					end -= pos;
+					pos = 0;
+					literal = 0;
+					int filled = fill(in, buf, end);
+					eof = filled < buf.length;
+					end = filled;
+					windowLength = Math.min(blockSize, end);
+					checksum = weakChecksum(buf, 0, windowLength);
+					continue;
+				}
+				if (windowLength == 0)
+					break;
+				int match = findBlock(blocks, signatures, checksum, buf, pos, windowLength);
+				if (match != -1) {
+					literalBytes += writeLiteral(out, buf, literal, pos);
+					if (copyCount > 0 && copyStart + copyCount == match)
+						copyCount++;
+					else {
+						writeCopy(out, copyStart, copyCount);
+						copyStart = match;
+						copyCount = 1;
+					}
+					pos += windowLength;
+					literal = pos;
+					windowLength = Math.min(blockSize, end - pos);
+					checksum = weakChecksum(buf, pos, windowLength);
+					continue;
+				}
+				writeCopy(out, copyStart, copyCount);
+				copyCount = 0;
+				int a = checksum & 0xffff;
+				int b = checksum >>> 16;
+				int removed = buf[pos] & 0xff;
+				pos++;
+				if (pos + windowLength <= end) {
+					int added = buf[pos + windowLength - 1] & 0xff;
+					a = a - removed + added;
+					b = b - windowLength * removed + a;
+				} else {
+					a = a - removed;
+					b = b - windowLength * removed;
+					windowLength--;
+				}
+				checksum = (a & 0xffff) | (b << 16);
+				if (pos - literal >= MAX_LITERAL) {
+					literalBytes += writeLiteral(out, buf, literal, pos);
+					literal = pos;
+				}
+			}
+			literalBytes += writeLiteral(out, buf, literal, end);
+			writeCopy(out, copyStart, copyCount);
+		} catch (IOException e) {
+			out.writeByte(ABORT);
+			out.flush();
+			throw e;
+		}
+		out.writeByte(END);
+		out.flush();
+		return literalBytes;
+	}
+
+	/**
+	 * Reads the instructions of the sender and rebuilds the file from the basis
+	 * and the received literals. If the basis can't be read or the file can't be
+	 * written, the rest of the instructions are still read, so the stream stays
+	 * usable.
+	 *
+	 * @param basis     The copy of the file that the signatures were computed from
+	 * @param target    The file that will be written
+	 * @param blockSize Block size of the signatures
+	 * @param is        Stream that the instructions are read from
+	 * @param c         Checksum that is updated with every written byte
+	 * @return Number of bytes that were copied from the basis
+	 * @throws StreamCorruptedException If the instructions are malformed, the
+	 *                                  stream can't be read any further then
+	 * @throws IOException
+	 */
+	public static long receiveDelta(File basis, File target, int blockSize, InputStream is, Checksum c)
+			throws IOException {
+		DataInputStream in = new DataInputStream(is);
+		byte[] buffer = new byte[Math.max(MAX_LITERAL, blockSize)];
+		long copied = 0;
+		IOException failure = null;
+		RandomAccessFile raf = null;
+		OutputStream out = null;
+		try {
+			try {
+				raf = new RandomAccessFile(basis, "r");
+				out = new BufferedOutputStream(new FileOutputStream(target));
+			} catch (IOException e) {
+				failure = e;
+			}
+			byte op;
+			while ((op = in.readByte()) != END) {
+				if (op == COPY) {
+					long position = (long) in.readInt() * blockSize;
+					long count = (long) in.readInt() * blockSize;
+					if (failure != null)
+						continue;
+					try {
+						long remaining = Math.min(count, raf.length() - position);
+						raf.seek(position);
+						while (remaining > 0) {
+							int size = (int) Math.min(buffer.length, remaining);
+							raf.readFully(buffer, 0, size);
+							out.write(buffer, 0, size);
+							c.update(buffer, 0, size);
+							remaining -= size;
+							copied += size;
+						}
+					} catch (IOException e) {
+						failure = e;
+					}
+				} else if (op == DATA) {
+					int size = in.readInt();
+					if (size < 0 || size > buffer.length)
+						throw new StreamCorruptedException("Delta literal of " + size + " bytes");
+					in.readFully(buffer, 0, size);
+					if (failure != null)
+						continue;
+					try {
+						out.write(buffer, 0, size);
+						c.update(buffer, 0, size);
+					} catch (IOException e) {
+						failure = e;
+					}
+				} else if (op == ABORT)
+					throw new IOException("The other user couldn't read the file");
+				else
+					throw new StreamCorruptedException("Unknown delta instruction " + op);
+			}
+		} finally {
+			if (raf != null)
+				raf.close();
+			if (out != null)
+				out.close();
+		}
+		if (failure != null)
+			throw failure;
+		return copied;
+	}
+
+	private static int findBlock(HashMap<Integer, int[]> blocks, Signatures signatures, int checksum, byte[] buf,
+			int pos, int windowLength) {
+		int[] candidates = blocks.get(checksum);
+		if (candidates == null)
+			return -1;
+		long strong = 0;
+		boolean hashed = false;
+		for (int block : candidates) {
+			if (signatures.blockLength(block) != windowLength)
+				continue;
+			if (!hashed) {
+				strong = strongHash.hash(buf, pos, windowLength, seed);
+				hashed = true;
+			}
+			if (signatures.strong[block] == strong)
+				return block;
+		}
+		return -1;
+	}
+
+	private static long writeLiteral(DataOutputStream out, byte[] buf, int from, int to) throws IOException {
+		if (to > from) {
+			out.writeByte(DATA);
+			out.writeInt(to - from);
+			out.write(buf, from, to - from);
+		}
+		return to - from;
+	}
+
+	private static void writeCopy(DataOutputStream out, int start, int count) throws IOException {
+		if (count > 0) {
+			out.writeByte(COPY);
+			out.writeInt(start);
+			out.writeInt(count);
+		}
+	}
+
+	private static int fill(InputStream in, byte[] buf, int from) throws IOException {
+		int bytesRead;
+		while (from < buf.length && (bytesRead = in.read(buf, from, buf.length - from)) != -1)
+			from += bytesRead;
+		return from;
+	}
+
+	/**
+	 * rsync's weak checksum, the low 16 bits are the sum of the bytes and the high
+	 * 16 bits are the sum of the prefix sums
+	 */
+	private static int weakChecksum(byte[] buf, int from, int length) {
+		int a = 0;
+		int b = 0;
+		for (int i = 0; i < length; i++) {
+			a += buf[from + i] & 0xff;
+			b += (length - i) * (buf[from + i] & 0xff);
+		}
+		return (a & 0xffff) | (b << 16);
+	}
+
+	/**
+	 * Signatures of the blocks of the copy of a file that the receiver has
+	 */
+	public static class Signatures {
+
+		private String name;
+		private long length;
+		private int blockSize;
+		private int[] weak;
+		private long[] strong;
+
+		public Signatures(String name, long length, int blockSize, int[] weak, long[] strong) {
+			this.name = name;
+			this.length = length;
+			this.blockSize = blockSize;
+			this.weak = weak;
+			this.strong = strong;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getLength() {
+			return length;
+		}
+
+		public int getBlockSize() {
+			return blockSize;
+		}
+
+		/**
+		 * Writes the signatures into a message
+		 *
+		 * @param message The message that will be sent
+		 */
+		public void writeTo(Message message) {
+			message.putString(name).putVarLong(length).putVarInt(blockSize).putVarInt(weak.length);
+			for (int i = 0; i < weak.length; i++)
+				message.putInt(weak[i]).putLong(strong[i]);
+		}
+
+		/**
+		 * Reads the signatures that were written with {@link #writeTo(Message)}
+		 *
+		 * @param message The received message
+		 * @return The signatures
+		 */
+		public static Signatures readFrom(Message message) {
+			String name = message.getString();
+			long length = message.getVarLong();
+			int blockSize = message.getVarInt();
+			int blocks = message.getCount(12);
+			if (blockSize <= 0 || blocks != (length + blockSize - 1) / blockSize)
+				throw new IllegalStateException("Malformed signatures of " + name);
+			int[] weak = new int[blocks];
+			long[] strong = new long[blocks];
+			for (int i = 0; i < blocks; i++) {
+				weak[i] = message.getInt();
+				strong[i] = message.getLong();
+			}
+			return new Signatures(name, length, blockSize, weak, strong);
+		}
+
+		private int blockLength(int block) {
+			return (int) Math.min(blockSize, length - (long) block * blockSize);
+		}
+
+		private HashMap<Integer, int[]> index() {
+			HashMap<Integer, int[]> blocks = new HashMap<>();
+			for (int i = 0; i < weak.length; i++) {
+				int[] old = blocks.get(weak[i]);
+				int[] candidates = old == null ? new int[1] : Arrays.copyOf(old, old.length + 1);
+				candidates[candidates.length - 1] = i;
+				blocks.put(weak[i], candidates);
+			}
+			return blocks;
+		}
+
+	}
+
+}
@@ -1,80 +1,669 @@
-package socket;
-
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.Socket;
-import java.util.zip.Checksum;
-
-import main.FolderOperations;
-
-public class FileSocket {
-
-	private static final int BUFFER_SIZE = 16384;
-	private InputStream is;
-	private OutputStream os;
-
-	public FileSocket(Socket s) {
-		try {
-			is = s.getInputStream();
-			os = s.getOutputStream();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-	}
-
-	/**
-	 * Sends a file over the socket connection
-	 * 
-	 * @param path Path of the file that will be send
-	 */
-	public void sendFile(String path) {
-		try {
-			File file = new File(path);
-			FileInputStream fis = new FileInputStream(file);
-			byte[] buffer = new byte[BUFFER_SIZE];
-			int bytesRead;
-			while ((bytesRead = fis.read(buffer)) != -1) {
-				os.write(buffer, 0, bytesRead);
-			}
-			fis.close();
-		} catch (Exception e) {
-			System.err.println("Exception on sending file");
-		}
-	}
-
-	/**
-	 * Receives a file over the socket connection fileSize is used to determine if
-	 * system received every byte
-	 * 
-	 * @param path     Path of the file that will be received
-	 * @param fileSize Size of the file that will be received
-	 */
-	public void receiveFile(String path, long fileSize, FolderOperations fo) {
-		try {
-			File file = new File(path+".tmp");
-			file.getParentFile().mkdirs();
-			Checksum c = fo.getChecksum();
-			byte[] buffer = new byte[BUFFER_SIZE];
-			FileOutputStream fos = new FileOutputStream(file);
-			int bytesRead;
-			long current = 0;
-			while (current < fileSize) {
-				bytesRead = is.read(buffer);
-				fos.write(buffer, 0, bytesRead);
-				c.update(buffer, 0, bytesRead);
-				current += bytesRead;
-			}
-			fos.close();
-			file.renameTo(new File(path));
-			fo.registerHash(c.getValue(), path);
-		} catch (IOException e) {
-			System.err.println("Couldn't receive file");
-		}
-	}
-
-}
+package socket;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.StreamCorruptedException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.Checksum;
+
+import main.ChunkStore;
+import main.ChunkStore.Chunks;
+import main.ChunkStore.Location;
+import main.FileHasher;
+import main.FolderOperations;
+import main.Metrics;
+import socket.DeltaEngine.Signatures;
+
+public class FileSocket {
+
+	private static final int BUFFER_SIZE = 16384;
+
+	/**
+	 * A partly received file is resumed from a multiple of this size, so the
+	 * checksums of the blocks before it can be kept
+	 */
+	public static final int RESUME_ALIGNMENT = BlockChecksum.BLOCK_SIZE;
+
+	private Socket socket;
+	private InputStream is;
+	private OutputStream os;
+	private SocketChannel channel;
+	private boolean compression;
+	private RateLimiter limiter;
+
+	/**
+	 * Creates a file socket that writes to the socket directly
+	 * 
+	 * @param s  A connected socket
+	 * @param is Input stream that is shared with the command socket
+	 */
+	public FileSocket(Socket s, InputStream is) {
+		socket = s;
+		try {
+			channel = s.getChannel();
+			this.is = new MeteredInputStream(is);
+			os = new MeteredOutputStream(s.getOutputStream());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+	}
+
+	/**
+	 * Sets if file content is sent and received as compressed blocks, both sides
+	 * must agree on it
+	 * 
+	 * @param compression true to compress file content
+	 */
+	public void setCompression(boolean compression) {
+		this.compression = compression;
+	}
+
+	/**
+	 * Limits the rate at which file content is sent and received
+	 * 
+	 * @param limiter The limiter or null to not limit
+	 */
+	public void setRateLimiter(RateLimiter limiter) {
+		this.limiter = limiter;
+	}
+
+	/**
+	 * Sends a file over the socket connection. If compression is on the file is
+	 * sent as compressed blocks. Otherwise if the socket has a channel the file is
+	 * transferred by the kernel without copying it into the memory, or it is
+	 * copied through a buffer.
+	 * 
+	 * @param path   Path of the file that will be send
+	 * @param length Number of bytes that the other user expects, a file that
+	 *               became shorter is padded with zeros so that the connection
+	 *               stays usable and the consistency check fails
+	 * @param offset Number of bytes at the beginning of the file that the other
+	 *               user already has
+	 */
+	public void sendFile(String path, long length, long offset) {
+		try {
+			if (compression)
+				compressFile(new File(path), offset);
+			else if (channel != null)
+				transferFile(new File(path), length, offset);
+			else
+				copyFile(new File(path), length, offset);
+		} catch (Exception e) {
+			System.err.println("Exception on sending file");
+		}
+	}
+
+	private void transferFile(File file, long length, long offset) throws IOException {
+		try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long position = offset;
+			while (position < length) {
+				long transferred = transfer(fc, position, length - position);
+				if (transferred == 0 && position >= fc.size()) {
+					pad(length - position);
+					break;
+				}
+				position += transferred;
+			}
+		}
+	}
+
+	private void compressFile(File file, long offset) throws IOException {
+		try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			BlockCompressor compressor = new BlockCompressor(os, file.getPath());
+			compressor.write(fc, offset, Math.max(0, fc.size() - offset));
+			compressor.finish();
+		}
+	}
+
+	private void copyFile(File file, long length, long offset) throws IOException {
+		try (FileInputStream fis = new FileInputStream(file)) {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			long position = offset;
+			fis.getChannel().position(offset);
+			while (position < length) {
+				int bytesRead = fis.read(buffer, 0, (int) Math.min(buffer.length, length - position));
+				if (bytesRead == -1) {
+					pad(length - position);
+					break;
+				}
+				os.write(buffer, 0, bytesRead);
+				position += bytesRead;
+			}
+		}
+	}
+
+	/**
+	 * Transfers a part of a file to the socket by the kernel, in slices that are
+	 * paced by the rate limiter if there is one
+	 */
+	private long transfer(FileChannel fc, long position, long count) throws IOException {
+		long transferred = fc.transferTo(position, limiter == null ? count : Math.min(count, RateLimiter.SLICE),
+				channel);
+		if (transferred > 0 && limiter != null)
+			limiter.acquire((int) transferred);
+		Metrics.bytesSent.add(transferred);
+		return transferred;
+	}
+
+	private void pad(long count) throws IOException {
+		byte[] zeros = new byte[(int) Math.min(BUFFER_SIZE, count)];
+		while (count > 0) {
+			int size = (int) Math.min(zeros.length, count);
+			os.write(zeros, 0, size);
+			count -= size;
+		}
+	}
+
+	/**
+	 * Gets whether an earlier attempt to receive a file left enough of it to
+	 * resume the file
+	 * 
+	 * @param path Path of the file that will be received
+	 */
+	public static boolean hasPartial(String path) {
+		return new File(path + ".tmp").length() >= RESUME_ALIGNMENT;
+	}
+
+	/**
+	 * Reads the part of an earlier attempt to receive a file that can be kept,
+	 * the beginning of the temporary file up to a multiple of
+	 * {@link #RESUME_ALIGNMENT} that is not longer than the file. That part is
+	 * checksummed so the other user can check it against its copy.
+	 * 
+	 * @param path     Path of the file that will be received
+	 * @param fileSize Size of the file that will be received
+	 * @return Checksum of the part that can be kept or null if there is none
+	 */
+	public static BlockChecksum resume(String path, long fileSize) {
+		File file = new File(path + ".tmp");
+		long offset = Math.min(file.length(), fileSize) / RESUME_ALIGNMENT * RESUME_ALIGNMENT;
+		if (offset == 0)
+			return null;
+		BlockChecksum c = new BlockChecksum();
+		try (FileInputStream fis = new FileInputStream(file)) {
+			readFully(fis, c, offset);
+			return c;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Receives a file over the socket connection fileSize is used to determine if
+	 * system received every byte, compressed files end with the end block instead.
+	 * The file replaces the current copy only if its checksum matches the hash,
+	 * otherwise it is left as a temporary file that can be repaired. The bytes
+	 * that arrived are kept in the temporary file if the connection breaks, so
+	 * that the file can be resumed.
+	 * 
+	 * @param path     Path of the file that will be received
+	 * @param fileSize Size of the file that will be received
+	 * @param hash     Expected hash of the file
+	 * @param resumed  Checksum of the beginning of the temporary file that the
+	 *                 other user continues after, null to receive all of it
+	 * @return Checksum of the received content or null if the file couldn't be
+	 *         received
+	 */
+	public BlockChecksum receiveFile(String path, long fileSize, long hash, BlockChecksum resumed,
+			FolderOperations fo) {
+		try {
+			File file = new File(path + ".tmp");
+			file.getParentFile().mkdirs();
+			BlockChecksum c = resumed == null ? new BlockChecksum() : resumed;
+			byte[] buffer = new byte[BUFFER_SIZE];
+			try (FileOutputStream fos = new FileOutputStream(file, resumed != null)) {
+				fos.getChannel().truncate(c.getLength());
+				int bytesRead;
+				if (compression) {
+					BlockDecompressor in = new BlockDecompressor(is);
+					while ((bytesRead = in.read(buffer)) != -1) {
+						fos.write(buffer, 0, bytesRead);
+						c.update(buffer, 0, bytesRead);
+					}
+				} else {
+					long current = c.getLength();
+					while (current < fileSize) {
+						bytesRead = is.read(buffer, 0, (int) Math.min(buffer.length, fileSize - current));
+						if (bytesRead == -1)
+							throw new IOException("Connection closed");
+						fos.write(buffer, 0, bytesRead);
+						c.update(buffer, 0, bytesRead);
+						current += bytesRead;
+					}
+				}
+			}
+			if (c.getValue() == hash)
+				install(file, path, hash, fo);
+			return c;
+		} catch (IOException e) {
+			System.err.println("Couldn't receive file");
+			return null;
+		}
+	}
+
+	/**
+	 * Receives the blocks of a temporary file that differ from the file of the
+	 * other user, and replaces the current copy with it if it is correct then.
+	 * The temporary file is hashed again since the hashes of the blocks that were
+	 * received before can't be combined into the hash of the whole file.
+	 * 
+	 * @param path      Path of the file
+	 * @param length    Length of the file
+	 * @param blockSize Size of the blocks
+	 * @param blocks    Indices of the blocks that will be received
+	 * @param hash      Expected hash of the file
+	 * @return Whether the file is correct after the repair
+	 */
+	public boolean repairFile(String path, long length, int blockSize, int[] blocks, long hash,
+			FolderOperations fo) {
+		File file = new File(path + ".tmp");
+		try {
+			InputStream in = compression ? new BlockDecompressor(is) : is;
+			byte[] buffer = new byte[blockSize];
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				for (int block : blocks) {
+					long offset = (long) block * blockSize;
+					int size = (int) Math.min(blockSize, length - offset);
+					readFully(in, buffer, size);
+					raf.seek(offset);
+					raf.write(buffer, 0, size);
+				}
+			}
+			if (compression)
+				((BlockDecompressor) in).skipToEnd();
+			if (FileHasher.hash(file) != hash)
+				return false;
+			install(file, path, hash, fo);
+			return true;
+		} catch (IOException e) {
+			System.err.println("Couldn't repair file");
+			return false;
+		}
+	}
+
+	private void install(File file, String path, long hash, FolderOperations fo) throws IOException {
+		Files.move(file.toPath(), new File(path).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		fo.registerHash(hash, path);
+	}
+
+	/**
+	 * Sends the instructions that turn the copy of the other user into the file
+	 * 
+	 * @param path       Path of the file that will be sent
+	 * @param signatures Signatures of the copy of the other user
+	 */
+	public void sendDelta(String path, Signatures signatures) {
+		try {
+			DeltaEngine.sendDelta(new File(path), signatures, new BufferedOutputStream(os, BUFFER_SIZE));
+		} catch (IOException e) {
+			System.err.println("Exception on sending delta");
+		}
+	}
+
+	/**
+	 * Receives the delta of a file and rebuilds the file from its current copy
+	 * 
+	 * @param path       Path of the file that will be received
+	 * @param signatures Signatures that were sent to the other user
+	 * @param hash       Expected hash of the file
+	 * @return Number of bytes that were reused from the current copy or -1 if
+	 *         the file couldn't be received or its checksum doesn't match, the
+	 *         connection is closed if the delta was malformed
+	 */
+	public long receiveDelta(String path, Signatures signatures, long hash, FolderOperations fo) {
+		try {
+			File file = new File(path + ".tmp");
+			Checksum c = fo.getChecksum();
+			long reused = DeltaEngine.receiveDelta(new File(path), file, signatures.getBlockSize(), is, c);
+			if (c.getValue() != hash) {
+				file.delete();
+				return -1;
+			}
+			install(file, path, hash, fo);
+			return reused;
+		} catch (StreamCorruptedException e) {
+			System.err.println("Couldn't read delta: " + e.getMessage());
+			try {
+				socket.close();
+			} catch (IOException ce) {
+				System.err.println("Couldn't close the connection");
+			}
+			return -1;
+		} catch (IOException e) {
+			System.err.println("Couldn't receive delta");
+			return -1;
+		}
+	}
+
+	/**
+	 * Sends the requested chunks of a file in the order they are in the file
+	 * 
+	 * @param path    Path of the file
+	 * @param chunks  Chunks of the file
+	 * @param indices Indices of the chunks that will be sent
+	 */
+	public void sendChunks(String path, Chunks chunks, int[] indices) {
+		long[] offsets = chunks.getOffsets();
+		long[] positions = new long[indices.length];
+		int[] lengths = new int[indices.length];
+		for (int i = 0; i < indices.length; i++) {
+			positions[i] = offsets[indices[i]];
+			lengths[i] = chunks.getLength(indices[i]);
+		}
+		sendRanges(path, positions, lengths);
+	}
+
+	/**
+	 * Sends the requested blocks of a file in the order they are in the file
+	 * 
+	 * @param path      Path of the file
+	 * @param blockSize Size of the blocks
+	 * @param blocks    Indices of the blocks that will be sent
+	 * @param length    Length of the file that the other user expects
+	 */
+	public void sendBlocks(String path, int blockSize, int[] blocks, long length) {
+		long[] positions = new long[blocks.length];
+		int[] lengths = new int[blocks.length];
+		for (int i = 0; i < blocks.length; i++) {
+			positions[i] = (long) blocks[i] * blockSize;
+			lengths[i] = (int) Math.max(0, Math.min(blockSize, length - positions[i]));
+		}
+		sendRanges(path, positions, lengths);
+	}
+
+	/**
+	 * Sends a range of a file, the range is padded with zeros if the file became
+	 * shorter
+	 * 
+	 * @param path     Path of the file
+	 * @param position Position of the range in the file
+	 * @param length   Length of the range
+	 */
+	public void sendRange(String path, long position, int length) {
+		sendRanges(path, new long[] { position }, new int[] { length });
+	}
+
+	/**
+	 * Sends content that is in the memory, e.g. the files of a bundle
+	 * 
+	 * @param data   The content
+	 * @param length Length of the content
+	 */
+	public void sendBytes(byte[] data, int length) {
+		try {
+			if (compression) {
+				BlockCompressor compressor = new BlockCompressor(os, "");
+				compressor.write(data, 0, length);
+				compressor.finish();
+			} else {
+				os.write(data, 0, length);
+				os.flush();
+			}
+		} catch (IOException e) {
+			System.err.println("Exception on sending bytes");
+		}
+	}
+
+	/**
+	 * Receives content that was sent with {@link #sendBytes}
+	 * 
+	 * @param data   Array the content is read into
+	 * @param length Length of the content
+	 * @return Whether all of the content was received
+	 */
+	public boolean receiveBytes(byte[] data, int length) {
+		try {
+			InputStream in = compression ? new BlockDecompressor(is) : is;
+			readFully(in, data, length);
+			if (compression)
+				((BlockDecompressor) in).skipToEnd();
+			return true;
+		} catch (IOException e) {
+			System.err.println("Couldn't receive bytes");
+			return false;
+		}
+	}
+
+	/**
+	 * Receives a range of a file and writes it at its position in the target.
+	 * Ranges of the same file can be received by several sockets at the same time
+	 * since the writes are positional.
+	 * 
+	 * @param target   Channel of the temporary file that is being received
+	 * @param position Position of the range in the file
+	 * @param length   Length of the range
+	 * @return Whether the whole range was received
+	 */
+	public boolean receiveRange(FileChannel target, long position, int length) {
+		try {
+			InputStream in = compression ? new BlockDecompressor(is) : is;
+			byte[] buffer = new byte[Math.max(1, Math.min(length, BUFFER_SIZE * 4))];
+			long end = position + length;
+			while (position < end) {
+				int size = (int) Math.min(buffer.length, end - position);
+				readFully(in, buffer, size);
+				ByteBuffer bb = ByteBuffer.wrap(buffer, 0, size);
+				while (bb.hasRemaining())
+					position += target.write(bb, position);
+			}
+			if (compression)
+				((BlockDecompressor) in).skipToEnd();
+			return true;
+		} catch (IOException e) {
+			System.err.println("Couldn't receive range");
+			return false;
+		}
+	}
+
+	private void sendRanges(String path, long[] positions, int[] lengths) {
+		try (FileChannel fc = FileChannel.open(new File(path).toPath(), StandardOpenOption.READ)) {
+			if (compression) {
+				BlockCompressor compressor = new BlockCompressor(os, path);
+				for (int i = 0; i < positions.length; i++)
+					compressor.write(fc, positions[i], lengths[i]);
+				compressor.finish();
+				return;
+			}
+			byte[] buffer = channel == null ? new byte[BUFFER_SIZE] : null;
+			for (int i = 0; i < positions.length; i++) {
+				long position = positions[i];
+				long end = position + lengths[i];
+				while (position < end) {
+					long transferred;
+					if (channel != null)
+						transferred = transfer(fc, position, end - position);
+					else {
+						transferred = fc.read(ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, end - position)),
+								position);
+						if (transferred > 0)
+							os.write(buffer, 0, (int) transferred);
+					}
+					if (transferred <= 0 && position >= fc.size()) {
+						pad(end - position);
+						break;
+					}
+					position += Math.max(0, transferred);
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("Exception on sending chunks");
+		}
+	}
+
+	/**
+	 * Receives a file as a list of chunks. The chunks that have a local copy are
+	 * read from the local files, the rest are received in order over the socket.
+	 * 
+	 * @param path   Path of the file that will be received
+	 * @param chunks Chunks of the file on the other side
+	 * @param local  Local copies of the chunks, null for the chunks that are sent
+	 * @param hash   Expected hash of the file
+	 * @return Number of bytes that were read from local copies or -1 if the file
+	 *         couldn't be received or its checksum doesn't match
+	 */
+	public long receiveChunks(String path, Chunks chunks, Location[] local, long hash, FolderOperations fo) {
+		HashMap<String, RandomAccessFile> sources = new HashMap<>();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		long reused = 0;
+		try {
+			File file = new File(path + ".tmp");
+			file.getParentFile().mkdirs();
+			Checksum c = fo.getChecksum();
+			InputStream in = compression ? new BlockDecompressor(is) : is;
+			try (OutputStream fos = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE)) {
+				for (int i = 0; i < chunks.size(); i++) {
+					int length = chunks.getLength(i);
+					if (buffer.length < length)
+						buffer = new byte[length];
+					if (local[i] != null && readLocalChunk(local[i], buffer, sources, fo)
+							&& ChunkStore.hash(buffer, 0, length) == chunks.getHash(i))
+						reused += length;
+					else if (local[i] != null)
+						Arrays.fill(buffer, 0, length, (byte) 0);
+					else
+						readFully(in, buffer, length);
+					fos.write(buffer, 0, length);
+					c.update(buffer, 0, length);
+				}
+			}
+			if (compression)
+				((BlockDecompressor) in).skipToEnd();
+			if (c.getValue() != hash) {
+				file.delete();
+				return -1;
+			}
+			install(file, path, hash, fo);
+			return reused;
+		} catch (IOException e) {
+			System.err.println("Couldn't receive chunks");
+			return -1;
+		} finally {
+			for (RandomAccessFile raf : sources.values()) {
+				try {
+					raf.close();
+				} catch (IOException e) {
+					continue;
+				}
+			}
+		}
+	}
+
+	private boolean readLocalChunk(Location location, byte[] buffer, HashMap<String, RandomAccessFile> sources,
+			FolderOperations fo) {
+		try {
+			RandomAccessFile raf = sources.get(location.getName());
+			if (raf == null) {
+				raf = new RandomAccessFile(fo.getFilePath(location.getName()), "r");
+				sources.put(location.getName(), raf);
+			}
+			raf.seek(location.getOffset());
+			raf.readFully(buffer, 0, location.getLength());
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static void readFully(InputStream in, Checksum c, long length) throws IOException {
+		byte[] buffer = new byte[BUFFER_SIZE * 4];
+		while (length > 0) {
+			int size = (int) Math.min(buffer.length, length);
+			readFully(in, buffer, size);
+			c.update(buffer, 0, size);
+			length -= size;
+		}
+	}
+
+	private static void readFully(InputStream in, byte[] buffer, int length) throws IOException {
+		int current = 0;
+		while (current < length) {
+			int bytesRead = in.read(buffer, current, length - current);
+			if (bytesRead == -1)
+				throw new IOException("Connection closed");
+			current += bytesRead;
+		}
+	}
+
+	/**
+	 * Reads file content at the pace of the rate limiter and counts it
+	 */
+	private class MeteredInputStream extends FilterInputStream {
+
+		private MeteredInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			if (b >= 0) {
+				Metrics.bytesReceived.increment();
+				if (limiter != null)
+					limiter.acquire(1);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int bytesRead = in.read(b, off, limiter == null ? len : Math.min(len, RateLimiter.SLICE));
+			if (bytesRead > 0) {
+				Metrics.bytesReceived.add(bytesRead);
+				if (limiter != null)
+					limiter.acquire(bytesRead);
+			}
+			return bytesRead;
+		}
+
+	}
+
+	/**
+	 * Writes file content at the pace of the rate limiter and counts it
+	 */
+	private class MeteredOutputStream extends FilterOutputStream {
+
+		private MeteredOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (limiter != null)
+				limiter.acquire(1);
+			out.write(b);
+			Metrics.bytesSent.increment();
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			Metrics.bytesSent.add(len);
+			while (len > 0) {
+				int size = limiter == null ? len : Math.min(len, RateLimiter.SLICE);
+				if (limiter != null)
+					limiter.acquire(size);
+				out.write(b, off, size);
+				off += size;
+				len -= size;
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,171 @@
+package socket;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Waits for the connections of idle sessions on one thread, so that a session
+ * that waits for changes doesn't hold a thread of its own. A session is woken
+ * up as soon as the other user sends something, or when it says it has
+ * something to do, which it is asked every {@link #TICK} milliseconds. Its
+ * connection is in blocking mode again when it is woken up.
+ */
+public class IdleSelector {
+
+	private static final long TICK = 200;
+
+	private Selector selector;
+	private Thread thread;
+	private ConcurrentLinkedQueue<Sleeper> arriving = new ConcurrentLinkedQueue<>();
+	private volatile boolean closed;
+
+	/**
+	 * Opens the selector and starts the thread that waits on it
+	 */
+	public IdleSelector() {
+		try {
+			selector = Selector.open();
+		} catch (IOException e) {
+			System.err.println("Couldn't open a selector");
+			return;
+		}
+		thread = new Thread(this::select, "Idle");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Lets a session wait until the other user sends something or it is due
+	 *
+	 * @param connection The connection of the session, it must be selectable
+	 * @param due        Tells whether the session has something to do even if
+	 *                   nothing arrived, asked on the thread of the selector
+	 * @param wake       Continues the session, run on the thread of the selector
+	 * @return Whether the session waits, false if the selector is closed
+	 */
+	public synchronized boolean park(Connection connection, BooleanSupplier due, Runnable wake) {
+		SocketChannel channel = connection.getChannel();
+		if (closed || selector == null || channel == null)
+			return false;
+		try {
+			channel.configureBlocking(false);
+		} catch (IOException e) {
+			return false;
+		}
+		arriving.add(new Sleeper(channel, due, wake));
+		selector.wakeup();
+		return true;
+	}
+
+	/**
+	 * Wakes up all the sessions and stops the thread, the sessions that are
+	 * woken up find the selector closed when they want to wait again
+	 */
+	public void close() {
+		synchronized (this) {
+			closed = true;
+		}
+		if (thread == null)
+			return;
+		selector.wakeup();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void select() {
+		long nextTick = System.currentTimeMillis() + TICK;
+		while (!closed) {
+			ArrayList<SelectionKey> woken = new ArrayList<>();
+			Sleeper sleeper;
+			while ((sleeper = arriving.poll()) != null) {
+				try {
+					sleeper.channel.register(selector, SelectionKey.OP_READ, sleeper);
+				} catch (ClosedChannelException e) {
+					sleeper.wake.run();
+				}
+			}
+			try {
+				selector.select(Math.max(1, nextTick - System.currentTimeMillis()));
+			} catch (IOException e) {
+				System.err.println("Couldn't wait on the selector");
+				break;
+			}
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				woken.add(keys.next());
+				keys.remove();
+			}
+			if (System.currentTimeMillis() >= nextTick) {
+				nextTick = System.currentTimeMillis() + TICK;
+				for (SelectionKey key : selector.keys()) {
+					if (!woken.contains(key) && ((Sleeper) key.attachment()).due.getAsBoolean())
+						woken.add(key);
+				}
+			}
+			wake(woken);
+		}
+		wake(new ArrayList<>(selector.keys()));
+		Sleeper sleeper;
+		while ((sleeper = arriving.poll()) != null)
+			wake(sleeper);
+		try {
+			selector.close();
+		} catch (IOException e) {
+			System.err.println("Couldn't close the selector");
+		}
+	}
+
+	/**
+	 * Takes the connections off the selector and continues their sessions
+	 */
+	private void wake(ArrayList<SelectionKey> keys) {
+		if (keys.isEmpty())
+			return;
+		for (SelectionKey key : keys)
+			key.cancel();
+		try {
+			selector.selectNow();
+		} catch (IOException e) {
+			System.err.println("Couldn't wait on the selector");
+		}
+		for (SelectionKey key : keys)
+			wake((Sleeper) key.attachment());
+	}
+
+	private static void wake(Sleeper sleeper) {
+		try {
+			sleeper.channel.configureBlocking(true);
+		} catch (IOException e) {
+			System.err.println("Couldn't wake a connection");
+		}
+		sleeper.wake.run();
+	}
+
+	/**
+	 * A session that waits
+	 */
+	private static class Sleeper {
+
+		private SocketChannel channel;
+		private BooleanSupplier due;
+		private Runnable wake;
+
+		private Sleeper(SocketChannel channel, BooleanSupplier due, Runnable wake) {
+			this.channel = channel;
+			this.due = due;
+			this.wake = wake;
+		}
+
+	}
+
+}
@@ -0,0 +1,189 @@
+package socket;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+import main.FileInfo;
+
+/**
+ * A message of the synchronization protocol. The payload is written with the
+ * put methods before sending, and read back in the same order with the get
+ * methods after receiving. Numbers that are usually small are written as
+ * varints, hashes are written with their full 8 bytes.
+ */
+public class Message {
+
+	private MessageType type;
+	private byte[] data;
+	private int length;
+	private int position;
+
+	/**
+	 * Creates an empty message that will be sent
+	 *
+	 * @param type Type of the message
+	 */
+	public Message(MessageType type) {
+		this(type, new byte[64], 0);
+	}
+
+	Message(MessageType type, byte[] data, int length) {
+		this.type = type;
+		this.data = data;
+		this.length = length;
+	}
+
+	public MessageType getType() {
+		return type;
+	}
+
+	public boolean hasRemaining() {
+		return position < length;
+	}
+
+	/**
+	 * Gets the number of bytes of the payload
+	 *
+	 * @return Size of the payload
+	 */
+	public int size() {
+		return length;
+	}
+
+	byte[] getData() {
+		return data;
+	}
+
+	int getLength() {
+		return length;
+	}
+
+	public Message putVarLong(long value) {
+		ensure(10);
+		while ((value & ~0x7fL) != 0) {
+			data[length++] = (byte) ((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		data[length++] = (byte) value;
+		return this;
+	}
+
+	public Message putVarInt(int value) {
+		return putVarLong(value & 0xffffffffL);
+	}
+
+	public Message putLong(long value) {
+		ensure(8);
+		for (int i = 56; i >= 0; i -= 8)
+			data[length++] = (byte) (value >>> i);
+		return this;
+	}
+
+	public Message putInt(int value) {
+		ensure(4);
+		for (int i = 24; i >= 0; i -= 8)
+			data[length++] = (byte) (value >>> i);
+		return this;
+	}
+
+	public Message putString(String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		putVarInt(bytes.length);
+		ensure(bytes.length);
+		System.arraycopy(bytes, 0, data, length, bytes.length);
+		length += bytes.length;
+		return this;
+	}
+
+	public Message putFileInfo(FileInfo fI) {
+		return putString(fI.getName()).putVarLong(fI.getLength()).putLong(fI.getHash());
+	}
+
+	public Message putFileInfos(Collection<FileInfo> fileInfos) {
+		putVarInt(fileInfos.size());
+		for (FileInfo fI : fileInfos)
+			putFileInfo(fI);
+		return this;
+	}
+
+	public long getVarLong() {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = next();
+			value |= (long) (b & 0x7f) << shift;
+			if (b >= 0)
+				return value;
+		}
+		throw new IllegalStateException("Malformed varint in " + type);
+	}
+
+	public int getVarInt() {
+		long value = getVarLong();
+		if (value >>> 32 != 0)
+			throw new IllegalStateException("Malformed varint in " + type);
+		return (int) value;
+	}
+
+	/**
+	 * Gets the number of items that follow, checking that the rest of the payload
+	 * can hold that many
+	 *
+	 * @param minBytes The fewest bytes an item takes
+	 * @return The number of items
+	 */
+	public int getCount(int minBytes) {
+		int count = getVarInt();
+		if (count < 0 || (long) count * minBytes > length - position)
+			throw new IllegalStateException("Malformed count in " + type);
+		return count;
+	}
+
+	public long getLong() {
+		long value = 0;
+		for (int i = 0; i < 8; i++)
+			value = (value << 8) | (next() & 0xff);
+		return value;
+	}
+
+	public int getInt() {
+		int value = 0;
+		for (int i = 0; i < 4; i++)
+			value = (value << 8) | (next() & 0xff);
+		return value;
+	}
+
+	public String getString() {
+		int size = getVarInt();
+		if (size < 0 || size > length - position)
+			throw new IllegalStateException("Truncated " + type);
+		String value = new String(data, position, size, StandardCharsets.UTF_8);
+		position += size;
+		return value;
+	}
+
+	public FileInfo getFileInfo() {
+		return new FileInfo(getString(), getVarLong(), getLong());
+	}
+
+	public ArrayList<FileInfo> getFileInfos() {
+		int count = getCount(10);
+		ArrayList<FileInfo> fileInfos = new ArrayList<>(count);
+		for (int i = 0; i < count; i++)
+			fileInfos.add(getFileInfo());
+		return fileInfos;
+	}
+
+	private byte next() {
+		if (position >= length)
+			throw new IllegalStateException("Truncated " + type);
+		return data[position++];
+	}
+
+	private void ensure(int size) {
+		if (length + size > data.length)
+			data = Arrays.copyOf(data, Math.max(length + size, 2 * data.length));
+	}
+
+}
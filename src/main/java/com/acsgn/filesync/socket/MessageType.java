@@ -0,0 +1,40 @@
+package socket;
+
+/**
+ * Types of the messages of the synchronization protocol, the id is the first
+ * byte of a frame
+ */
+public enum MessageType {
+
+	HELLO(1), ROOT(2), SINCE(3), JOURNAL(4), TRANSMIT(5), DELTA(6), CHUNKS(7), CHUNKGET(8), CLOSE(9), FILE(10),
+	BLOCKSUMS(11), BLOCKGET(12), TREE(13), JOIN(14), RANGEGET(15), RANGE(16), BUSY(17),
+	BUNDLEGET(18), BUNDLE(19), IDLE(20), CHANGED(21), PING(22);
+
+	private static final MessageType[] types = new MessageType[256];
+
+	static {
+		for (MessageType type : values())
+			types[type.id] = type;
+	}
+
+	private final int id;
+
+	private MessageType(int id) {
+		this.id = id;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Finds the type of a message by its id
+	 *
+	 * @param id Id of the type
+	 * @return The type or null if the id is unknown
+	 */
+	public static MessageType of(int id) {
+		return types[id & 0xff];
+	}
+
+}
@@ -0,0 +1,168 @@
+package socket;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+
+/**
+ * Token bucket that limits the bytes of file content per second. The bucket
+ * holds up to a second of tokens, so a short burst is sent at full speed and a
+ * long transfer settles at the rate. A limiter can have a parent, e.g. the
+ * limiter of one follower and the limiter of the whole user, and bytes are
+ * taken from both.
+ * <p>
+ * The rate may depend on the time of the day. It is given as a comma separated
+ * list of rules, where a rule is either a rate or a span of the day with its
+ * rate, e.g. {@code 08:00-18:00=2M,10M}. A rate is bytes per second with an
+ * optional K, M or G suffix, and 0 means unlimited. The first span that
+ * contains the current time wins, and the plain rate applies outside all spans.
+ */
+public class RateLimiter {
+
+	/**
+	 * Largest number of bytes that should be sent or received between two calls
+	 * to {@link #acquire(int)}, so the bytes are paced evenly
+	 */
+	public static final int SLICE = 1 << 16;
+
+	private ArrayList<Rule> rules = new ArrayList<>();
+	private RateLimiter parent;
+	private double tokens;
+	private long last = System.nanoTime();
+
+	/**
+	 * Creates a limiter
+	 *
+	 * @param rules  The rate or the rates by time of the day
+	 * @param parent The limiter that is taken from too, or null
+	 * @throws IllegalArgumentException If the rules can't be parsed
+	 */
+	public RateLimiter(String rules, RateLimiter parent) {
+		this.parent = parent;
+		for (String rule : rules.split(",")) {
+			rule = rule.trim();
+			if (!rule.isEmpty())
+				this.rules.add(Rule.parse(rule));
+		}
+	}
+
+	/**
+	 * Waits until the given number of bytes may be sent or received
+	 *
+	 * @param bytes Number of bytes, at most {@link #SLICE} for an even pace
+	 */
+	public void acquire(int bytes) {
+		long wait;
+		synchronized (this) {
+			long rate = getRate();
+			long now = System.nanoTime();
+			if (rate <= 0) {
+				tokens = 0;
+				wait = 0;
+			} else {
+				tokens = Math.min(rate, tokens + (now - last) * rate / 1e9) - bytes;
+				wait = tokens < 0 ? (long) (-tokens * 1e9 / rate) : 0;
+			}
+			last = now;
+		}
+		if (wait > 0) {
+			try {
+				Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (parent != null)
+			parent.acquire(bytes);
+	}
+
+	/**
+	 * Gets the rate that applies now
+	 *
+	 * @return Bytes per second, 0 if unlimited
+	 */
+	public long getRate() {
+		int minute = LocalTime.now().toSecondOfDay() / 60;
+		long rate = 0;
+		for (Rule rule : rules) {
+			if (rule.from < 0)
+				rate = rule.rate;
+			else if (rule.contains(minute))
+				return rule.rate;
+		}
+		return rate;
+	}
+
+	/**
+	 * Gets whether the limiter or its parent may ever limit
+	 */
+	public boolean isLimited() {
+		for (Rule rule : rules) {
+			if (rule.rate > 0)
+				return true;
+		}
+		return parent != null && parent.isLimited();
+	}
+
+	/**
+	 * A rate, for a span of the day or for the rest of it
+	 */
+	private static class Rule {
+
+		private int from = -1;
+		private int to = -1;
+		private long rate;
+
+		private static Rule parse(String text) {
+			Rule rule = new Rule();
+			int equals = text.indexOf('=');
+			if (equals >= 0) {
+				String[] span = text.substring(0, equals).split("-");
+				if (span.length != 2)
+					throw new IllegalArgumentException("Invalid span " + text);
+				rule.from = minute(span[0]);
+				rule.to = minute(span[1]);
+				text = text.substring(equals + 1);
+			}
+			rule.rate = rate(text.trim());
+			return rule;
+		}
+
+		/**
+		 * Gets whether the span contains the minute of the day, a span whose end is
+		 * before its start goes over midnight
+		 */
+		private boolean contains(int minute) {
+			if (from <= to)
+				return minute >= from && minute < to;
+			return minute >= from || minute < to;
+		}
+
+		private static int minute(String time) {
+			String[] parts = time.trim().split(":");
+			try {
+				int minute = Integer.parseInt(parts[0]) * 60 + (parts.length > 1 ? Integer.parseInt(parts[1]) : 0);
+				if (minute < 0 || minute > 24 * 60)
+					throw new IllegalArgumentException("Invalid time " + time);
+				return minute;
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid time " + time);
+			}
+		}
+
+		private static long rate(String text) {
+			long unit = 1;
+			char suffix = Character.toUpperCase(text.isEmpty() ? ' ' : text.charAt(text.length() - 1));
+			if (suffix == 'K' || suffix == 'M' || suffix == 'G') {
+				unit = suffix == 'K' ? 1 << 10 : suffix == 'M' ? 1 << 20 : 1 << 30;
+				text = text.substring(0, text.length() - 1);
+			}
+			try {
+				return Math.max(0, (long) (Double.parseDouble(text) * unit));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid rate " + text);
+			}
+		}
+
+	}
+
+}
@@ -1,44 +1,199 @@
-package socket;
-
-import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-
-public class Server {
-
-	private static final int timeout = 1000;
-	private ServerSocket serverSocket;
-
-	/**
-	 * Defines port number of the server with default port number and creates a
-	 * ServerSocket object
-	 */
-	public Server(int port) {
-		try {
-			serverSocket = new ServerSocket(port);
-			serverSocket.setSoTimeout(timeout);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-	}
-
-	/**
-	 * Establishes a socket connection with client
-	 * 
-	 * @throws IOException
-	 */
-	public Connection connect() throws IOException {
-		Socket socket = serverSocket.accept();
-		return new Connection(socket);
-	}
-	
-	public void close() {
-		try {
-			serverSocket.close();
-			finalize();
-		} catch (Throwable e) {
-			e.printStackTrace();
-		}
-	}
-
-}
\ No newline at end of file
+package socket;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Accepts the connections of the followers. Connections are accepted and their
+ * first message is read without blocking on a selector, so a connection that
+ * is slow to greet doesn't hold a thread and a new connection is seen as soon
+ * as it arrives. A connection is handed over in blocking mode once its first
+ * message was read.
+ */
+public class Server {
+
+	private static final long GREETING_TIMEOUT = 10000;
+	private static final int MAX_GREETING = 1 << 10;
+	private static final int MAX_PENDING = 1024;
+
+	private Selector selector;
+	private ServerSocketChannel channel;
+	private ArrayDeque<Connection> ready = new ArrayDeque<>();
+	private volatile boolean closed;
+
+	/**
+	 * Opens the server socket on the given port and registers it with a selector
+	 *
+	 * @param port Port number of the server
+	 */
+	public Server(int port) {
+		try {
+			selector = Selector.open();
+			channel = ServerSocketChannel.open();
+			channel.bind(new InetSocketAddress(port));
+			channel.configureBlocking(false);
+			channel.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Waits for a connection that sent its first message
+	 *
+	 * @return The connection, its first message is its greeting, or null if the
+	 *         server is closed
+	 * @throws IOException
+	 */
+	public Connection connect() throws IOException {
+		while (ready.isEmpty()) {
+			if (closed) {
+				shutdown();
+				return null;
+			}
+			selector.select(expire());
+			ArrayList<SelectionKey> greeted = new ArrayList<>();
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				if (!key.isValid())
+					continue;
+				if (key.isAcceptable())
+					accept();
+				else if (key.isReadable() && read(key))
+					greeted.add(key);
+			}
+			if (greeted.isEmpty())
+				continue;
+			selector.selectNow();
+			for (SelectionKey key : greeted) {
+				SocketChannel socket = (SocketChannel) key.channel();
+				socket.configureBlocking(true);
+				ready.add(new Connection(socket.socket(), ((Greeting) key.attachment()).message()));
+			}
+		}
+		return ready.poll();
+	}
+
+	/**
+	 * Stops accepting connections, the thread that waits in {@link #connect()}
+	 * returns null
+	 */
+	public void close() {
+		closed = true;
+		selector.wakeup();
+	}
+
+	private void accept() throws IOException {
+		SocketChannel socket;
+		while ((socket = channel.accept()) != null) {
+			if (selector.keys().size() > MAX_PENDING) {
+				socket.close();
+				continue;
+			}
+			socket.configureBlocking(false);
+			socket.register(selector, SelectionKey.OP_READ, new Greeting());
+		}
+	}
+
+	/**
+	 * Reads the first message of a connection as far as it arrived, a connection
+	 * that sends something else than a message is closed
+	 *
+	 * @return Whether the whole message arrived, its key is cancelled then
+	 */
+	private boolean read(SelectionKey key) {
+		SocketChannel socket = (SocketChannel) key.channel();
+		Greeting greeting = (Greeting) key.attachment();
+		try {
+			if (greeting.read(socket)) {
+				key.cancel();
+				return true;
+			}
+		} catch (IOException e) {
+			key.cancel();
+			closeQuietly(socket);
+		}
+		return false;
+	}
+
+	/**
+	 * Closes the connections that didn't greet in time
+	 *
+	 * @return Milliseconds until the next connection expires, 0 if none is
+	 *         pending
+	 */
+	private long expire() {
+		long now = System.currentTimeMillis();
+		long next = 0;
+		for (SelectionKey key : selector.keys()) {
+			Greeting greeting = (Greeting) key.attachment();
+			if (greeting == null || !key.isValid())
+				continue;
+			long left = greeting.deadline - now;
+			if (left <= 0) {
+				key.cancel();
+				closeQuietly(key.channel());
+			} else if (next == 0 || left < next)
+				next = left;
+		}
+		return next;
+	}
+
+	private void shutdown() {
+		for (SelectionKey key : selector.keys())
+			closeQuietly(key.channel());
+		closeQuietly(selector);
+	}
+
+	private static void closeQuietly(Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			System.err.println("Couldn't close a connection");
+		}
+	}
+
+	/**
+	 * The first message of a connection while it arrives. Only the bytes of the
+	 * message are read, the following messages stay in the socket.
+	 */
+	private static class Greeting {
+
+		private long deadline = System.currentTimeMillis() + GREETING_TIMEOUT;
+		private ByteBuffer header = ByteBuffer.allocate(5);
+		private ByteBuffer payload;
+
+		private boolean read(SocketChannel socket) throws IOException {
+			if (payload == null) {
+				if (socket.read(header) < 0)
+					throw new IOException("Connection closed");
+				if (header.hasRemaining())
+					return false;
+				int length = header.getInt(0);
+				if (length < 0 || length > MAX_GREETING || MessageType.of(header.get(4)) == null)
+					throw new IOException("Invalid greeting");
+				payload = ByteBuffer.allocate(length);
+			}
+			if (payload.hasRemaining() && socket.read(payload) < 0)
+				throw new IOException("Connection closed");
+			return !payload.hasRemaining();
+		}
+
+		private Message message() {
+			return new Message(MessageType.of(header.get(4)), payload.array(), payload.capacity());
+		}
+
+	}
+
+}
@@ -0,0 +1,143 @@
+package socket;
+
+import java.io.Closeable;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Extra connections of a synchronization session that carry file data next to
+ * the connection of the protocol. Every stream serves requests in one
+ * direction only, so the side that serves a stream can read it without
+ * competing with the side that requests over it. The follower opens the streams
+ * after the handshake and announces each one with a JOIN frame, the master
+ * collects them here by the id of the session until all of them arrived.
+ */
+public class StreamGroup implements Closeable {
+
+	/**
+	 * Streams over which the follower requests and the master serves
+	 */
+	public static final int DOWNLOAD = 0;
+	/**
+	 * Streams over which the master requests and the follower serves
+	 */
+	public static final int UPLOAD = 1;
+
+	private static final ConcurrentHashMap<Long, StreamGroup> sessions = new ConcurrentHashMap<>();
+	private static final SecureRandom random = new SecureRandom();
+
+	private long id;
+	private int size;
+	private ArrayList<ArrayList<Connection>> streams = new ArrayList<>();
+	private boolean closed;
+
+	/**
+	 * Creates a group of streams
+	 *
+	 * @param id   Id of the session
+	 * @param size Number of streams in each direction
+	 */
+	public StreamGroup(long id, int size) {
+		this.id = id;
+		this.size = size;
+		streams.add(new ArrayList<Connection>());
+		streams.add(new ArrayList<Connection>());
+	}
+
+	/**
+	 * Creates a group with a new session id that accepts the streams that join
+	 * it, used by the master
+	 *
+	 * @param size Number of streams in each direction
+	 * @return The group
+	 */
+	public static StreamGroup open(int size) {
+		StreamGroup group;
+		do {
+			group = new StreamGroup(random.nextLong(), size);
+		} while (sessions.putIfAbsent(group.id, group) != null);
+		return group;
+	}
+
+	/**
+	 * Adds a stream to the group of its session
+	 *
+	 * @param id         Id of the session
+	 * @param direction  {@link #DOWNLOAD} or {@link #UPLOAD}
+	 * @param connection The stream
+	 * @return Whether there was such a session that still waited for the stream
+	 */
+	public static boolean join(long id, int direction, Connection connection) {
+		StreamGroup group = sessions.get(id);
+		return group != null && (direction == DOWNLOAD || direction == UPLOAD) && group.add(direction, connection);
+	}
+
+	/**
+	 * Adds a stream to the group
+	 *
+	 * @param direction  {@link #DOWNLOAD} or {@link #UPLOAD}
+	 * @param connection The stream
+	 * @return Whether the group still waited for the stream
+	 */
+	public synchronized boolean add(int direction, Connection connection) {
+		if (closed || streams.get(direction).size() >= size)
+			return false;
+		streams.get(direction).add(connection);
+		notifyAll();
+		return true;
+	}
+
+	/**
+	 * Waits until all the streams joined the group
+	 *
+	 * @param timeout Time to wait in milliseconds
+	 * @return Whether all the streams joined
+	 */
+	public synchronized boolean await(long timeout) {
+		long end = System.currentTimeMillis() + timeout;
+		try {
+			while (!closed && (streams.get(DOWNLOAD).size() < size || streams.get(UPLOAD).size() < size)) {
+				long left = end - System.currentTimeMillis();
+				if (left <= 0)
+					return false;
+				wait(left);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		sessions.remove(id);
+		return !closed;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Gets the streams of a direction
+	 *
+	 * @param direction {@link #DOWNLOAD} or {@link #UPLOAD}
+	 * @return The streams
+	 */
+	public synchronized ArrayList<Connection> getStreams(int direction) {
+		return new ArrayList<>(streams.get(direction));
+	}
+
+	@Override
+	public synchronized void close() {
+		closed = true;
+		sessions.remove(id);
+		for (ArrayList<Connection> connections : streams) {
+			for (Connection connection : connections)
+				connection.close();
+		}
+		notifyAll();
+	}
+
+}
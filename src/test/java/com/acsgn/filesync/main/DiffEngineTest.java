@@ -0,0 +1,102 @@
+package main;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import main.ChangeJournal.Change;
+
+public class DiffEngineTest {
+
+	private TreeMap<String, FileInfo> before = new TreeMap<>();
+	private FileIndex after = new FileIndex();
+
+	@Test
+	public void findsModifiedCreatedAndDeletedFiles() {
+		before.put("same", file("same", 1));
+		after.put(file("same", 1));
+		before.put("changed", file("changed", 2));
+		after.put(file("changed", 3));
+		before.put("new", null);
+		after.put(file("new", 4));
+		before.put("gone", file("gone", 5));
+		ArrayList<Change> changes = DiffEngine.diff(before, after);
+		assertEquals(3, changes.size());
+		assertChange(changes.get(0), ChangeJournal.MODIFY, "changed", "");
+		assertChange(changes.get(1), ChangeJournal.DELETE, "gone", "");
+		assertChange(changes.get(2), ChangeJournal.CREATE, "new", "");
+	}
+
+	@Test
+	public void findsRenamesByContent() {
+		rename("old", "renamed", 7);
+		ArrayList<Change> changes = DiffEngine.diff(before, after);
+		assertEquals(1, changes.size());
+		assertChange(changes.get(0), ChangeJournal.RENAME, "renamed", "old");
+	}
+
+	@Test
+	public void reportsAMovedDirectoryOnce() {
+		rename(path("a", "b", "f"), path("x", "b", "f"), 1);
+		rename(path("a", "c", "g"), path("x", "c", "g"), 2);
+		ArrayList<Change> changes = DiffEngine.diff(before, after);
+		assertEquals(1, changes.size());
+		assertChange(changes.get(0), ChangeJournal.MOVE, "x", "a");
+		assertEquals(2, changes.get(0).getLength());
+	}
+
+	@Test
+	public void doesNotMoveADirectoryWhoseFilesStayed() {
+		rename(path("a", "f"), path("x", "f"), 1);
+		before.put(path("a", "g"), file(path("a", "g"), 2));
+		after.put(file(path("a", "g"), 2));
+		ArrayList<Change> changes = DiffEngine.diff(before, after);
+		assertEquals(1, changes.size());
+		assertChange(changes.get(0), ChangeJournal.RENAME, path("x", "f"), path("a", "f"));
+	}
+
+	@Test
+	public void movesTheSubdirectoriesOfASplitDirectory() {
+		rename(path("a", "b", "f"), path("x", "b", "f"), 1);
+		rename(path("a", "c", "g"), path("y", "c", "g"), 2);
+		ArrayList<Change> changes = DiffEngine.diff(before, after);
+		assertEquals(2, changes.size());
+		assertChange(changes.get(0), ChangeJournal.MOVE, path("x", "b"), path("a", "b"));
+		assertChange(changes.get(1), ChangeJournal.MOVE, path("y", "c"), path("a", "c"));
+	}
+
+	@Test
+	public void doesNotMoveADirectoryWhoseFilesWereDeleted() {
+		rename(path("a", "f"), path("x", "f"), 1);
+		before.put(path("a", "g"), file(path("a", "g"), 2));
+		ArrayList<Change> changes = DiffEngine.diff(before, after);
+		assertEquals(2, changes.size());
+		assertChange(changes.get(0), ChangeJournal.DELETE, path("a", "g"), "");
+		assertChange(changes.get(1), ChangeJournal.RENAME, path("x", "f"), path("a", "f"));
+	}
+
+	private void rename(String oldName, String newName, long hash) {
+		before.put(oldName, file(oldName, hash));
+		before.put(newName, null);
+		after.put(file(newName, hash));
+	}
+
+	private static FileInfo file(String name, long hash) {
+		return new FileInfo(name, 100, hash);
+	}
+
+	private static String path(String... parts) {
+		return String.join(File.separator, parts);
+	}
+
+	private static void assertChange(Change change, int type, String name, String oldName) {
+		assertEquals(type, change.getType());
+		assertEquals(name, change.getName());
+		assertEquals(oldName, change.getOldName());
+	}
+
+}
@@ -0,0 +1,85 @@
+package main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FileIndexTest {
+
+	@Test
+	public void putReplacesTheFileWithTheSameName() {
+		FileIndex index = new FileIndex();
+		FileInfo first = new FileInfo("a", 1, 10);
+		FileInfo second = new FileInfo("a", 2, 20);
+		assertNull(index.put(first));
+		assertEquals(first, index.put(second));
+		assertEquals(1, index.size());
+		assertFalse(index.containsHash(10));
+		assertEquals(second, index.getByHash(20)[0]);
+	}
+
+	@Test
+	public void keepsAllFilesWithTheSameContent() {
+		FileIndex index = new FileIndex();
+		for (int i = 0; i < 3; i++)
+			index.put(new FileInfo("copy" + i, 5, 42));
+		assertEquals(3, index.getByHash(42).length);
+		index.remove("copy1");
+		FileInfo[] files = index.getByHash(42);
+		assertEquals(2, files.length);
+		assertEquals("copy0", files[0].getName());
+		assertEquals("copy2", files[1].getName());
+		index.remove("copy0");
+		index.remove("copy2");
+		assertFalse(index.containsHash(42));
+	}
+
+	/**
+	 * Removes entries from long probe sequences, every remaining hash has to be
+	 * found after the entries behind a removed one were shifted back
+	 */
+	@Test
+	public void findsAllHashesAfterBackwardShiftDeletes() {
+		FileIndex index = new FileIndex();
+		Random random = new Random(1);
+		ArrayList<FileInfo> files = new ArrayList<>();
+		for (int i = 0; i < 5000; i++) {
+			// Consecutive small hashes besides random ones give clusters of neighbours
+			long hash = i % 2 == 0 ? i : random.nextLong();
+			FileInfo fI = new FileInfo("f" + i, i, hash);
+			files.add(fI);
+			index.put(fI);
+		}
+		for (int i = 0; i < files.size(); i += 3)
+			index.remove(files.get(i).getName());
+		for (int i = 0; i < files.size(); i++) {
+			FileInfo fI = files.get(i);
+			boolean removed = i % 3 == 0;
+			assertEquals(fI.getName(), !removed, index.containsHash(fI.getHash()));
+			if (!removed)
+				assertEquals(fI, index.getByHash(fI.getHash())[0]);
+		}
+	}
+
+	@Test
+	public void removesTheFilesUnderADirectory() {
+		FileIndex index = new FileIndex();
+		index.put(new FileInfo("a" + File.separator + "x", 1, 1));
+		index.put(new FileInfo("a" + File.separator + "b" + File.separator + "y", 1, 2));
+		index.put(new FileInfo("ab", 1, 3));
+		assertEquals(2, index.countUnder("a"));
+		assertEquals(2, index.removeUnder("a").size());
+		assertEquals(1, index.size());
+		assertTrue(index.containsHash(3));
+		assertFalse(index.containsHash(1));
+		assertFalse(index.containsHash(2));
+	}
+
+}
@@ -0,0 +1,146 @@
+package main;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Synchronizes two folders over loopback with a master and a follower, first
+ * from scratch and then after the master changed, renamed, deleted and added
+ * files
+ */
+public class FolderSyncTest {
+
+	private static final long TIMEOUT = 30000;
+
+	private Path masterFolder;
+	private Path followerFolder;
+	private FolderOperations masterFo;
+	private FolderOperations followerFo;
+	private Master master;
+	private Follower follower;
+	private Random random = new Random(1);
+
+	@Before
+	public void setUp() throws IOException {
+		masterFolder = Files.createTempDirectory("master");
+		followerFolder = Files.createTempDirectory("follower");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		if (follower != null)
+			follower.close();
+		if (master != null)
+			master.close();
+		if (masterFo != null)
+			masterFo.close();
+		if (followerFo != null)
+			followerFo.close();
+		delete(masterFolder);
+		delete(followerFolder);
+	}
+
+	@Test
+	public void synchronizesBothFolders() throws Exception {
+		for (int i = 0; i < 200; i++)
+			write(masterFolder.resolve("d" + i % 7 + "/s" + i % 3 + "/file" + i + ".bin"), bytes(random.nextInt(5000)));
+		byte[] big = bytes(6 << 20);
+		write(masterFolder.resolve("big/big.dat"), big);
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 200000; i++)
+			text.append("line ").append(i % 1000).append('\n');
+		write(masterFolder.resolve("text.txt"), text.toString().getBytes());
+		for (int i = 0; i < 20; i++)
+			write(followerFolder.resolve("fonly/x" + i), bytes(random.nextInt(5000)));
+
+		start();
+		assertSynchronized();
+
+		big[3000000] ^= 1;
+		write(masterFolder.resolve("big/big.dat"), big);
+		Files.move(masterFolder.resolve("d1/s1/file1.bin"), masterFolder.resolve("d1/s1/renamed1.bin"));
+		Files.delete(masterFolder.resolve("d2/s2/file2.bin"));
+		write(masterFolder.resolve("new/n.txt"), "hello".getBytes());
+		byte[] copy = new byte[big.length + 1000];
+		System.arraycopy(big, 0, copy, 1000, big.length);
+		write(masterFolder.resolve("copy/bigcopy.dat"), copy);
+		assertSynchronized();
+	}
+
+	private void start() throws IOException {
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		masterFo = new FolderOperations(masterFolder.toString());
+		followerFo = new FolderOperations(followerFolder.toString());
+		master = new Master(masterFo, port);
+		new Thread(master, "Master").start();
+		follower = new Follower(followerFo, "127.0.0.1", port, 1);
+	}
+
+	private void assertSynchronized() throws Exception {
+		long end = System.currentTimeMillis() + TIMEOUT;
+		while (System.currentTimeMillis() < end && !listing(masterFolder).equals(listing(followerFolder)))
+			Thread.sleep(200);
+		assertEquals(listing(masterFolder), listing(followerFolder));
+	}
+
+	private byte[] bytes(int length) {
+		byte[] bytes = new byte[length];
+		random.nextBytes(bytes);
+		return bytes;
+	}
+
+	private static void write(Path path, byte[] content) throws IOException {
+		Files.createDirectories(path.getParent());
+		Files.write(path, content);
+	}
+
+	/**
+	 * Lists the files of a folder with a digest of their content, without the
+	 * temporary files and the metadata
+	 */
+	private static Map<String, String> listing(Path folder) throws IOException {
+		TreeMap<String, String> files = new TreeMap<>();
+		try (Stream<Path> paths = Files.walk(folder)) {
+			paths.filter(Files::isRegularFile).forEach(path -> {
+				String name = folder.relativize(path).toString();
+				if (name.endsWith(".tmp") || name.startsWith(".filesync"))
+					return;
+				try {
+					byte[] content = Files.readAllBytes(path);
+					files.put(name, content.length + ":" + Arrays.hashCode(content));
+				} catch (IOException e) {
+					// The file is still being written, the next listing will see it
+					files.put(name, e.toString());
+				}
+			});
+		} catch (UncheckedIOException e) {
+			files.put("", e.toString());
+		}
+		return files;
+	}
+
+	private static void delete(Path folder) throws IOException {
+		try (Stream<Path> paths = Files.walk(folder)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+}
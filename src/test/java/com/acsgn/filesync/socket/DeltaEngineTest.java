@@ -0,0 +1,123 @@
+package socket;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import socket.DeltaEngine.Signatures;
+
+public class DeltaEngineTest {
+
+	private File basis;
+	private File source;
+	private File target;
+	private Random random = new Random(1);
+
+	@Before
+	public void setUp() throws IOException {
+		basis = File.createTempFile("basis", ".bin");
+		source = File.createTempFile("source", ".bin");
+		target = File.createTempFile("target", ".bin");
+	}
+
+	@After
+	public void tearDown() {
+		basis.delete();
+		source.delete();
+		target.delete();
+	}
+
+	@Test
+	public void rebuildsTheSourceFromTheBasis() throws IOException {
+		byte[] content = bytes(200000);
+		Files.write(basis.toPath(), content);
+		content[100000] ^= 1;
+		Files.write(source.toPath(), content);
+		ByteArrayInputStream delta = delta();
+		long copied = DeltaEngine.receiveDelta(basis, target, signatures().getBlockSize(), delta, new CRC32());
+		assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+		assertEquals(0, delta.available());
+		assertTrue(copied > 150000);
+	}
+
+	@Test
+	public void abortsWhenTheSourceCanNotBeRead() throws IOException {
+		Files.write(basis.toPath(), bytes(10000));
+		Signatures signatures = signatures();
+		source.delete();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			DeltaEngine.sendDelta(source, signatures, out);
+			fail();
+		} catch (IOException e) {
+			// The abort was written before
+		}
+		ByteArrayInputStream delta = new ByteArrayInputStream(out.toByteArray());
+		try {
+			DeltaEngine.receiveDelta(basis, target, signatures.getBlockSize(), delta, new CRC32());
+			fail();
+		} catch (StreamCorruptedException e) {
+			fail();
+		} catch (IOException e) {
+			assertEquals(0, delta.available());
+		}
+	}
+
+	@Test
+	public void readsTheWholeDeltaWhenTheBasisIsGone() throws IOException {
+		byte[] content = bytes(50000);
+		Files.write(basis.toPath(), content);
+		Files.write(source.toPath(), content);
+		Signatures signatures = signatures();
+		ByteArrayInputStream delta = delta();
+		basis.delete();
+		try {
+			DeltaEngine.receiveDelta(basis, target, signatures.getBlockSize(), delta, new CRC32());
+			fail();
+		} catch (IOException e) {
+			assertEquals(0, delta.available());
+		}
+	}
+
+	@Test(expected = StreamCorruptedException.class)
+	public void rejectsALiteralLargerThanTheBuffer() throws IOException {
+		Files.write(basis.toPath(), bytes(1000));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeByte(2);
+		data.writeInt(Integer.MAX_VALUE);
+		DeltaEngine.receiveDelta(basis, target, 2048, new ByteArrayInputStream(out.toByteArray()), new CRC32());
+	}
+
+	private Signatures signatures() throws IOException {
+		return DeltaEngine.computeSignatures("file", basis);
+	}
+
+	private ByteArrayInputStream delta() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DeltaEngine.sendDelta(source, signatures(), out);
+		return new ByteArrayInputStream(out.toByteArray());
+	}
+
+	private byte[] bytes(int length) {
+		byte[] bytes = new byte[length];
+		random.nextBytes(bytes);
+		return bytes;
+	}
+
+}
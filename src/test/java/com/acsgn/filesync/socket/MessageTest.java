@@ -0,0 +1,92 @@
+package socket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import main.FileInfo;
+
+public class MessageTest {
+
+	private static final long[] LONGS = { 0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, 1L << 35,
+			Long.MAX_VALUE, Long.MIN_VALUE, -1 };
+	private static final int[] INTS = { 0, 1, 127, 128, 300, 1 << 21, Integer.MAX_VALUE, Integer.MIN_VALUE, -1 };
+
+	@Test
+	public void varLongsRoundTrip() {
+		Message message = new Message(MessageType.CHUNKS);
+		for (long value : LONGS)
+			message.putVarLong(value);
+		Message received = received(message);
+		for (long value : LONGS)
+			assertEquals(value, received.getVarLong());
+		assertFalse(received.hasRemaining());
+	}
+
+	@Test
+	public void varIntsRoundTrip() {
+		Message message = new Message(MessageType.CHUNKS);
+		for (int value : INTS)
+			message.putVarInt(value);
+		Message received = received(message);
+		for (int value : INTS)
+			assertEquals(value, received.getVarInt());
+		assertFalse(received.hasRemaining());
+	}
+
+	@Test
+	public void smallVarIntsTakeOneByte() {
+		assertEquals(1, new Message(MessageType.CHUNKS).putVarInt(127).size());
+		assertEquals(2, new Message(MessageType.CHUNKS).putVarInt(128).size());
+		assertEquals(5, new Message(MessageType.CHUNKS).putVarInt(-1).size());
+	}
+
+	@Test
+	public void fixedNumbersStringsAndFilesRoundTrip() {
+		ArrayList<FileInfo> files = new ArrayList<>(
+				Arrays.asList(new FileInfo("a/b", 5, -7), new FileInfo("\u00fcn\u00efcode", 1L << 40, Long.MAX_VALUE)));
+		Message received = received(new Message(MessageType.TREE).putLong(Long.MIN_VALUE).putInt(-2)
+				.putString("").putString("name").putFileInfos(files));
+		assertEquals(Long.MIN_VALUE, received.getLong());
+		assertEquals(-2, received.getInt());
+		assertEquals("", received.getString());
+		assertEquals("name", received.getString());
+		ArrayList<FileInfo> read = received.getFileInfos();
+		assertEquals(files.size(), read.size());
+		for (int i = 0; i < files.size(); i++) {
+			assertEquals(files.get(i).getName(), read.get(i).getName());
+			assertEquals(files.get(i).getLength(), read.get(i).getLength());
+			assertEquals(files.get(i).getHash(), read.get(i).getHash());
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void rejectsAVarIntThatDoesNotFit() {
+		received(new Message(MessageType.CHUNKS).putVarLong(1L << 32)).getVarInt();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void rejectsATruncatedPayload() {
+		Message message = new Message(MessageType.CHUNKS).putLong(1);
+		new Message(MessageType.CHUNKS, message.getData(), 5).getLong();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void rejectsANegativeCount() {
+		received(new Message(MessageType.TREE).putVarInt(-1)).getFileInfos();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void rejectsACountThePayloadCanNotHold() {
+		received(new Message(MessageType.TREE).putVarInt(1000).putLong(0)).getFileInfos();
+	}
+
+	private static Message received(Message sent) {
+		return new Message(sent.getType(), Arrays.copyOf(sent.getData(), sent.getLength()), sent.getLength());
+	}
+
+}
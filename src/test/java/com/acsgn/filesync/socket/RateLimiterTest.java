@@ -0,0 +1,61 @@
+package socket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+	@Test
+	public void parsesRatesWithSuffixes() {
+		assertEquals(1500, new RateLimiter("1500", null).getRate());
+		assertEquals(2 << 10, new RateLimiter("2k", null).getRate());
+		assertEquals(3 << 20, new RateLimiter("3M", null).getRate());
+		assertEquals(1L << 30, new RateLimiter("1G", null).getRate());
+		assertEquals(512 << 10, new RateLimiter("0.5M", null).getRate());
+	}
+
+	@Test
+	public void zeroIsUnlimited() {
+		RateLimiter limiter = new RateLimiter("0", null);
+		assertEquals(0, limiter.getRate());
+		assertFalse(limiter.isLimited());
+		assertFalse(new RateLimiter("", null).isLimited());
+	}
+
+	@Test
+	public void aSpanThatContainsNowWins() {
+		assertEquals(1 << 10, new RateLimiter("00:00-24:00=1K,5M", null).getRate());
+		assertEquals(1 << 10, new RateLimiter("5M,00:00-24:00=1K", null).getRate());
+	}
+
+	@Test
+	public void theRestOfTheDayHasThePlainRate() {
+		// An empty span never contains the current time
+		assertEquals(5 << 20, new RateLimiter("10:00-10:00=1K,5M", null).getRate());
+	}
+
+	@Test
+	public void aLimitedParentLimits() {
+		RateLimiter parent = new RateLimiter("1M", null);
+		assertTrue(new RateLimiter("0", parent).isLimited());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsAnInvalidRate() {
+		new RateLimiter("fast", null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsAnInvalidSpan() {
+		new RateLimiter("08:00=1M", null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsAnInvalidTime() {
+		new RateLimiter("25:00-26:00=1M", null);
+	}
+
+}